@@ -144,6 +144,35 @@ BEGIN
 END;
 $$ LANGUAGE plpgsql;
 
+-- Query: log-email-requests
+-- Multi-row variant used by the asynchronous delivery log writer
+CREATE OR REPLACE FUNCTION log_email_requests(p_records JSONB)
+RETURNS VOID AS $$
+BEGIN
+    INSERT INTO email_deliveries (
+        event_id, event_type, recipient_email, template_id, priority, status, created_at
+    )
+    SELECT
+        r."eventId",
+        r."eventType",
+        r."recipientEmail",
+        r."templateId",
+        r."priority",
+        r."status",
+        COALESCE(r."createdAt"::TIMESTAMPTZ, CURRENT_TIMESTAMP)
+    FROM jsonb_to_recordset(p_records) AS r(
+        "eventId" VARCHAR,
+        "eventType" VARCHAR,
+        "recipientEmail" VARCHAR,
+        "templateId" VARCHAR,
+        "priority" VARCHAR,
+        "status" VARCHAR,
+        "createdAt" VARCHAR
+    )
+    ON CONFLICT (event_id) DO NOTHING;
+END;
+$$ LANGUAGE plpgsql;
+
 -- Query: get-email-status
 CREATE OR REPLACE FUNCTION get_email_status(p_event_id VARCHAR)
 RETURNS TABLE (
@@ -209,6 +238,30 @@ BEGIN
 END;
 $$ LANGUAGE plpgsql;
 
+-- Query: get-active-email-templates
+CREATE OR REPLACE FUNCTION get_active_email_templates()
+RETURNS TABLE (
+    id VARCHAR,
+    locale VARCHAR,
+    subject VARCHAR,
+    html_body TEXT,
+    text_body TEXT,
+    version INT
+) AS $$
+BEGIN
+    RETURN QUERY
+    SELECT
+        t.id,
+        t.locale,
+        t.subject,
+        t.html_body,
+        t.text_body,
+        t.version
+    FROM email_templates t
+    WHERE t.is_active = TRUE;
+END;
+$$ LANGUAGE plpgsql;
+
 -- Grant permissions (adjust as needed)
 -- GRANT USAGE ON SCHEMA public TO your_app_user;
 -- GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA public TO your_app_user;
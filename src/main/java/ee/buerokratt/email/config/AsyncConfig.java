@@ -0,0 +1,129 @@
+package ee.buerokratt.email.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Configuration for executors used by the API.
+ */
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    @Value("${email.batch.executor.core-size:16}")
+    private int batchCoreSize;
+
+    @Value("${email.batch.executor.max-size:64}")
+    private int batchMaxSize;
+
+    @Value("${email.batch.executor.queue-capacity:1000}")
+    private int batchQueueCapacity;
+
+    @Value("${email.async-send.executor.core-size:16}")
+    private int acceptCoreSize;
+
+    @Value("${email.async-send.executor.max-size:32}")
+    private int acceptMaxSize;
+
+    @Value("${email.async-send.executor.queue-capacity:2000}")
+    private int acceptQueueCapacity;
+
+    @Value("${email.stream.executor.max-size:8}")
+    private int streamMaxSize;
+
+    @Value("${email.stream.executor.send-threads:16}")
+    private int streamSendThreads;
+
+    @Value("${email.stream.window:128}")
+    private int streamWindow;
+
+    /**
+     * Executor for rendering and publishing batch items.
+     *
+     * Kept separate from the common pool because its tasks block on HTTP
+     * and AMQP calls. When the queue is full the submitting request thread
+     * runs the task itself, which slows down the caller instead of failing.
+     */
+    @Bean(name = "emailBatchExecutor")
+    public ThreadPoolTaskExecutor emailBatchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(batchCoreSize);
+        executor.setMaxPoolSize(batchMaxSize);
+        executor.setQueueCapacity(batchQueueCapacity);
+        executor.setThreadNamePrefix("email-batch-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor for single sends in async mode.
+     *
+     * Unlike the batch executor this one rejects work when its queue is
+     * full, so a burst is answered with 503 instead of tying up request
+     * threads again.
+     */
+    @Bean(name = "emailAcceptExecutor")
+    public ThreadPoolTaskExecutor emailAcceptExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(acceptCoreSize);
+        executor.setMaxPoolSize(acceptMaxSize);
+        executor.setQueueCapacity(acceptQueueCapacity);
+        executor.setThreadNamePrefix("email-accept-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor for streaming response bodies such as /email/send-stream.
+     *
+     * The controller admits at most as many streams as there are threads,
+     * so the queue only holds a stream briefly while the thread of one
+     * that just finished returns to the pool.
+     */
+    @Bean(name = "mvcAsyncExecutor")
+    public ThreadPoolTaskExecutor mvcAsyncExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamMaxSize);
+        executor.setMaxPoolSize(streamMaxSize);
+        executor.setThreadNamePrefix("email-mvc-async-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor for rendering and publishing the records of
+     * /email/send-stream, kept apart from the batch executor so long
+     * streams cannot starve /email/send-batch. Each stream has at most
+     * email.stream.window records in flight, so the queue holds the
+     * records of every admitted stream.
+     */
+    @Bean(name = "emailStreamExecutor")
+    public ThreadPoolTaskExecutor emailStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamSendThreads);
+        executor.setMaxPoolSize(streamSendThreads);
+        executor.setQueueCapacity(streamWindow * streamMaxSize);
+        executor.setThreadNamePrefix("email-stream-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(mvcAsyncExecutor());
+    }
+}
@@ -2,16 +2,31 @@ package ee.buerokratt.email.config;
 
 import com.github.jknack.handlebars.Handlebars;
 import com.github.jknack.handlebars.helper.StringHelpers;
+import ee.buerokratt.email.service.provider.CircuitBreaker;
+import ee.buerokratt.email.service.provider.CircuitBreakerEmailProvider;
 import ee.buerokratt.email.service.provider.EmailProvider;
+import ee.buerokratt.email.service.provider.RateLimitedEmailProvider;
+import ee.buerokratt.email.service.provider.RoutingEmailProvider;
 import ee.buerokratt.email.service.provider.SmtpEmailProvider;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -22,6 +37,66 @@ public class EmailProviderConfig {
 
     private static final Logger log = LoggerFactory.getLogger(EmailProviderConfig.class);
 
+    @Value("${spring.application.name:email-notification-service}")
+    private String applicationName;
+
+    @Value("${email.provider:smtp}")
+    private String providerName;
+
+    @Value("${email.rate-limit.enabled:false}")
+    private boolean rateLimitEnabled;
+
+    @Value("${email.rate-limit.rate:14}")
+    private double rateLimitRate;
+
+    @Value("${email.rate-limit.burst:14}")
+    private int rateLimitBurst;
+
+    @Value("${email.rate-limit.max-wait:2000}")
+    private long rateLimitMaxWaitMs;
+
+    @Value("${email.rate-limit.mode:local}")
+    private String rateLimitMode;
+
+    @Value("${email.rate-limit.redis.key-prefix:email:rate-limit:}")
+    private String rateLimitKeyPrefix;
+
+    @Value("${email.rate-limit.redis.heartbeat-interval:5000}")
+    private long rateLimitHeartbeatMs;
+
+    @Value("${email.routing.enabled:false}")
+    private boolean routingEnabled;
+
+    @Value("${email.routing.weights:}")
+    private String routingWeights;
+
+    @Value("${email.routing.sticky-event-types:}")
+    private String routingStickyEventTypes;
+
+    @Value("${email.routing.ejection-error-rate:0.5}")
+    private double routingEjectionErrorRate;
+
+    @Value("${email.circuit-breaker.window-size:50}")
+    private int circuitWindowSize;
+
+    @Value("${email.circuit-breaker.minimum-calls:20}")
+    private int circuitMinimumCalls;
+
+    @Value("${email.circuit-breaker.failure-rate-threshold:50}")
+    private double circuitFailureRateThreshold;
+
+    @Value("${email.circuit-breaker.slow-call-duration:4000}")
+    private long circuitSlowCallMs;
+
+    @Value("${email.circuit-breaker.slow-call-rate-threshold:80}")
+    private double circuitSlowCallRateThreshold;
+
+    @Value("${email.circuit-breaker.open-duration:30000}")
+    private long circuitOpenDurationMs;
+
+    @Value("${email.circuit-breaker.probes:3}")
+    private int circuitProbes;
+
     @Bean
     public Handlebars handlebars() {
         Handlebars handlebars = new Handlebars();
@@ -44,12 +119,142 @@ public class EmailProviderConfig {
 
     @Bean
     @ConditionalOnProperty(name = "email.provider", havingValue = "smtp")
-    public EmailProvider smtpEmailProvider() {
+    public EmailProvider smtpEmailProvider(MeterRegistry registry) {
         log.info("Using SMTP email provider");
-        return new SmtpEmailProvider();
+        return new SmtpEmailProvider(registry);
     }
 
     // Additional providers can be added here:
     // - @Bean @ConditionalOnProperty(name = "email.provider", havingValue = "ses")
     // - @Bean @ConditionalOnProperty(name = "email.provider", havingValue = "sendgrid")
+    // With email.routing.enabled every provider bean becomes a route.
+
+    /**
+     * Provider used by the worker: the configured provider, or a router
+     * over all provider beans when routing is enabled, with the send rate
+     * limit applied per provider and the circuit breaker around the whole.
+     * The breaker is outermost so an open circuit rejects before waiting
+     * for rate limit tokens.
+     */
+    @Bean
+    @Primary
+    public EmailProvider emailProvider(List<EmailProvider> providers, MeterRegistry registry,
+                                       StringRedisTemplate redisTemplate,
+                                       ObjectProvider<CircuitBreaker> circuitBreaker) {
+        EmailProvider wrapped;
+
+        if (routingEnabled) {
+            Map<EmailProvider, Double> routes = new LinkedHashMap<>();
+            Map<String, Double> weights = parseWeights(routingWeights);
+            for (EmailProvider provider : providers) {
+                Double weight = weights.isEmpty() ? Double.valueOf(1.0) : weights.get(provider.getProviderName());
+                if (weight != null && weight > 0) {
+                    routes.put(rateLimited(provider, registry, redisTemplate), weight);
+                }
+            }
+            if (routes.isEmpty()) {
+                throw new IllegalStateException("No email provider beans match email.routing.weights: " + routingWeights);
+            }
+
+            RoutingEmailProvider router = new RoutingEmailProvider(routes,
+                parseList(routingStickyEventTypes), routingEjectionErrorRate);
+            router.bindTo(registry, applicationName);
+
+            log.info("Routing email across providers {} (sticky event types: {})",
+                routes.keySet().stream().map(EmailProvider::getProviderName).toList(), routingStickyEventTypes);
+            wrapped = router;
+        } else {
+            EmailProvider provider = providers.stream()
+                .filter(candidate -> providerName.equals(candidate.getProviderName()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No email provider bean for email.provider=" + providerName));
+            wrapped = rateLimited(provider, registry, redisTemplate);
+        }
+
+        CircuitBreaker breaker = circuitBreaker.getIfAvailable();
+        if (breaker != null) {
+            wrapped = new CircuitBreakerEmailProvider(wrapped, breaker);
+        }
+
+        return wrapped;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "email.circuit-breaker.enabled", havingValue = "true", matchIfMissing = true)
+    public CircuitBreaker providerCircuitBreaker(MeterRegistry registry) {
+        CircuitBreaker breaker = new CircuitBreaker(routingEnabled ? "routing" : providerName, new CircuitBreaker.Settings(
+            circuitWindowSize, circuitMinimumCalls, circuitFailureRateThreshold, circuitSlowCallMs,
+            circuitSlowCallRateThreshold, circuitOpenDurationMs, circuitProbes));
+        breaker.bindTo(registry, applicationName);
+
+        log.info("Provider circuit breaker enabled: failureRate={}%, slowCall={}ms at {}%, openDuration={}ms",
+            circuitFailureRateThreshold, circuitSlowCallMs, circuitSlowCallRateThreshold, circuitOpenDurationMs);
+        return breaker;
+    }
+
+    /**
+     * Reports the provider circuit. An open circuit is OUT_OF_SERVICE
+     * rather than DOWN: the service itself works and keeps messages queued.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "email.circuit-breaker.enabled", havingValue = "true", matchIfMissing = true)
+    public HealthIndicator providerCircuitHealthIndicator(CircuitBreaker providerCircuitBreaker) {
+        return () -> {
+            CircuitBreaker.State state = providerCircuitBreaker.getState();
+            Health.Builder health = state == CircuitBreaker.State.OPEN ? Health.outOfService() : Health.up();
+            return health
+                .withDetail("circuit", providerCircuitBreaker.getName())
+                .withDetail("state", state)
+                .withDetail("failureRate", providerCircuitBreaker.failureRate())
+                .withDetail("slowCallRate", providerCircuitBreaker.slowCallRate())
+                .build();
+        };
+    }
+
+    private EmailProvider rateLimited(EmailProvider provider, MeterRegistry registry, StringRedisTemplate redisTemplate) {
+        if (!rateLimitEnabled) {
+            return provider;
+        }
+
+        boolean shared = "redis".equals(rateLimitMode);
+        RateLimitedEmailProvider limited = new RateLimitedEmailProvider(provider,
+            new RateLimitedEmailProvider.Settings(rateLimitRate, rateLimitBurst, rateLimitMaxWaitMs,
+                shared ? rateLimitKeyPrefix + provider.getProviderName() : null, rateLimitHeartbeatMs));
+        limited.bindTo(registry, applicationName);
+
+        if (shared) {
+            limited.startSharing(redisTemplate);
+        }
+
+        log.info("Rate limiting {} to {}/s (burst {}, {} quota)", provider.getProviderName(),
+            rateLimitRate, rateLimitBurst, shared ? "shared" : "per replica");
+        return limited;
+    }
+
+    /**
+     * Parse "name:weight" pairs, e.g. "smtp:3,ses:1". A name without a
+     * weight gets weight 1.
+     */
+    private static Map<String, Double> parseWeights(String value) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (String entry : parseList(value)) {
+            int colon = entry.indexOf(':');
+            if (colon < 0) {
+                weights.put(entry, 1.0);
+            } else {
+                weights.put(entry.substring(0, colon).trim(), Double.parseDouble(entry.substring(colon + 1).trim()));
+            }
+        }
+        return weights;
+    }
+
+    private static Set<String> parseList(String value) {
+        Set<String> items = new LinkedHashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
 }
@@ -0,0 +1,65 @@
+package ee.buerokratt.email.config;
+
+import ee.buerokratt.email.service.idempotency.IdempotencyStore;
+import ee.buerokratt.email.service.idempotency.LocalIdempotencyStore;
+import ee.buerokratt.email.service.idempotency.RedisIdempotencyStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+
+/**
+ * Configuration for request idempotency tracking.
+ */
+@Configuration
+public class IdempotencyConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyConfig.class);
+
+    @Value("${spring.application.name:email-notification-service}")
+    private String applicationName;
+
+    @Value("${email.idempotency.window:86400000}")
+    private long windowMs;
+
+    @Value("${email.idempotency.generations:8}")
+    private int generations;
+
+    @Value("${email.idempotency.max-entries:1000000}")
+    private long maxEntries;
+
+    @Value("${email.idempotency.off-heap:false}")
+    private boolean offHeap;
+
+    @Value("${email.idempotency.mode:local}")
+    private String mode;
+
+    @Value("${email.idempotency.redis.key-prefix:email:idempotency:}")
+    private String redisKeyPrefix;
+
+    @Bean
+    public IdempotencyStore idempotencyStore(MeterRegistry registry, StringRedisTemplate redisTemplate) {
+        LocalIdempotencyStore store = new LocalIdempotencyStore(windowMs, generations, maxEntries, offHeap);
+        store.bindTo(registry, applicationName);
+
+        log.info("Using local idempotency store: window={}ms, maxEntries={}, memory={} bytes",
+            windowMs, maxEntries, store.memoryBytes());
+
+        if ("redis".equals(mode)) {
+            RedisIdempotencyStore redisStore = new RedisIdempotencyStore(
+                redisTemplate, store, redisKeyPrefix, Duration.ofMillis(windowMs)
+            );
+            redisStore.bindTo(registry, applicationName);
+
+            log.info("Using Redis idempotency store with key prefix: {}", redisKeyPrefix);
+            return redisStore;
+        }
+
+        return store;
+    }
+}
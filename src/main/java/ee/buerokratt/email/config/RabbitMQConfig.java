@@ -1,6 +1,7 @@
 package ee.buerokratt.email.config;
 
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
@@ -36,6 +37,15 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.email.dlq.ttl:86400000}")
     private long dlqTtl;
 
+    @Value("${rabbitmq.listener.prefetch:10}")
+    private int listenerPrefetch;
+
+    @Value("${email.worker.batch.size:50}")
+    private int batchSize;
+
+    @Value("${email.worker.batch.timeout:200}")
+    private long batchTimeoutMs;
+
     @Bean
     public ConnectionFactory connectionFactory() {
         CachingConnectionFactory factory = new CachingConnectionFactory(rabbitHost);
@@ -43,6 +53,40 @@ public class RabbitMQConfig {
         factory.setUsername(rabbitUsername);
         factory.setPassword(rabbitPassword);
         factory.setChannelCacheSize(25);
+        factory.setPublisherConfirmType(CachingConnectionFactory.ConfirmType.CORRELATED);
+        factory.setPublisherReturns(true);
+        return factory;
+    }
+
+    /**
+     * Container factory for the per-message email listener. Workers
+     * acknowledge each delivery themselves once it is sent, retried or
+     * dead-lettered.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setPrefetchCount(listenerPrefetch);
+        return factory;
+    }
+
+    /**
+     * Container factory for the batch email listener. Each consumer
+     * collects up to batch-size deliveries, or what arrived within
+     * batch-timeout, and hands them to the listener in one call.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchListenerContainerFactory(ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(batchTimeoutMs);
+        factory.setPrefetchCount(Math.max(listenerPrefetch, batchSize));
         return factory;
     }
 
@@ -55,16 +99,8 @@ public class RabbitMQConfig {
     public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
         RabbitTemplate template = new RabbitTemplate(connectionFactory);
         template.setMessageConverter(jsonMessageConverter());
-        template.setConfirmCallback((correlationData, ack, cause) -> {
-            if (ack) {
-                // Message confirmed by broker
-            } else {
-                // Message not confirmed - log or handle
-            }
-        });
-        template.setReturnsCallback(returned -> {
-            // Message returned - undeliverable
-        });
+        // Confirms and returns are tracked per message by ConfirmingPublisher
+        template.setMandatory(true);
         return template;
     }
 
@@ -3,6 +3,11 @@ package ee.buerokratt.email.config;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.authorization.AuthorityAuthorizationManager;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
+import org.springframework.security.authorization.AuthorizationManagers;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
@@ -11,6 +16,10 @@ import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.access.intercept.RequestAuthorizationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 /**
  * Security configuration for JWT authentication via TIM.
@@ -19,12 +28,17 @@ import org.springframework.security.web.SecurityFilterChain;
 @EnableWebSecurity
 public class SecurityConfig {
 
+    private static final String CRON_TOKEN_HEADER = "X-Cron-Token";
+
     @Value("${tim.url:http://tim:8083}")
     private String timUrl;
 
     @Value("${security.disabled:false}")
     private boolean securityDisabled;
 
+    @Value("${security.cron-token:}")
+    private String cronToken;
+
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         if (securityDisabled) {
@@ -37,6 +51,10 @@ public class SecurityConfig {
             .csrf(AbstractHttpConfigurer::disable)
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/actuator/health").permitAll()
+                // CronManager has no JWT and sends the shared cron token instead
+                .requestMatchers(HttpMethod.POST, "/email/refresh-templates").access(AuthorizationManagers.anyOf(
+                    AuthorityAuthorizationManager.hasAuthority("SCOPE_email:admin"),
+                    cronToken()))
                 .anyRequest().authenticated()
             )
             .oauth2ResourceServer(oauth2 -> oauth2
@@ -49,6 +67,19 @@ public class SecurityConfig {
         return http.build();
     }
 
+    /**
+     * Allow requests carrying the shared cron token in the X-Cron-Token
+     * header. Denies everything when no token is configured.
+     */
+    private AuthorizationManager<RequestAuthorizationContext> cronToken() {
+        byte[] expected = cronToken.getBytes(StandardCharsets.UTF_8);
+        return (authentication, context) -> {
+            String header = context.getRequest().getHeader(CRON_TOKEN_HEADER);
+            return new AuthorizationDecision(expected.length > 0 && header != null
+                && MessageDigest.isEqual(expected, header.getBytes(StandardCharsets.UTF_8)));
+        };
+    }
+
     @Bean
     public JwtDecoder jwtDecoder() {
         return NimbusJwtDecoder.withJwkSetUri(timUrl + "/jwks")
@@ -0,0 +1,32 @@
+package ee.buerokratt.email.config;
+
+import ee.buerokratt.email.service.TemplateCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Configuration for template cache invalidation across replicas.
+ *
+ * Subscribes the template cache to the Redis eviction channel.
+ */
+@Configuration
+public class TemplateCacheConfig {
+
+    @Value("${email.template.cache.eviction-channel:email:template-evictions}")
+    private String evictionChannel;
+
+    @Bean
+    public RedisMessageListenerContainer templateEvictionListenerContainer(
+        RedisConnectionFactory connectionFactory,
+        TemplateCache templateCache
+    ) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(templateCache, new ChannelTopic(evictionChannel));
+        return container;
+    }
+}
@@ -3,16 +3,30 @@ package ee.buerokratt.email.controller;
 import ee.buerokratt.email.model.DeliveryStatus;
 import ee.buerokratt.email.model.EmailRequest;
 import ee.buerokratt.email.service.EmailService;
+import ee.buerokratt.email.service.EmailStreamProcessor;
+import ee.buerokratt.email.service.TemplateService;
+import ee.buerokratt.email.service.provider.ProviderHealthMonitor;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 /**
  * REST API controller for email notifications.
@@ -26,36 +40,86 @@ public class EmailController {
 
     private static final Logger log = LoggerFactory.getLogger(EmailController.class);
     private final EmailService emailService;
+    private final TemplateService templateService;
+    private final EmailStreamProcessor streamProcessor;
+    private final ProviderHealthMonitor providerHealthMonitor;
 
-    public EmailController(EmailService emailService) {
+    public EmailController(EmailService emailService, TemplateService templateService,
+                           EmailStreamProcessor streamProcessor, ProviderHealthMonitor providerHealthMonitor) {
         this.emailService = emailService;
+        this.templateService = templateService;
+        this.streamProcessor = streamProcessor;
+        this.providerHealthMonitor = providerHealthMonitor;
+    }
+
+    @Value("${email.async-send.enabled:false}")
+    private boolean asyncSendEnabled;
+
+    @Value("${email.stream.executor.max-size:8}")
+    private int streamMaxSize;
+
+    private Semaphore streamSlots;
+
+    @PostConstruct
+    public void init() {
+        streamSlots = new Semaphore(streamMaxSize);
     }
 
     /**
      * Send a single email notification.
      *
+     * In async mode the request thread is released straight away and the
+     * response is 202 Accepted once the message has been queued.
+     *
      * @param request Email request with recipient, template, and data
+     * @param async Use async mode; defaults to email.async-send.enabled
      * @return Message ID and status
      */
     @PostMapping("/send")
     @PreAuthorize("hasAuthority('SCOPE_email:send')")
-    public ResponseEntity<Map<String, Object>> sendEmail(
-        @Valid @RequestBody EmailRequest request
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> sendEmail(
+        @Valid @RequestBody EmailRequest request,
+        @RequestParam(required = false) Boolean async
     ) {
         log.info("Received email send request for event type: {}", request.getEventType());
 
+        if (!(async != null ? async : asyncSendEnabled)) {
+            return CompletableFuture.completedFuture(sendEmailSync(request));
+        }
+
+        try {
+            return emailService.sendEmailAsync(request)
+                .thenApply(result -> ResponseEntity.status(HttpStatus.ACCEPTED).body(result))
+                .exceptionally(e -> sendError(e instanceof CompletionException ? e.getCause() : e));
+        } catch (RejectedExecutionException e) {
+            log.warn("Async email queue is full, rejecting request");
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("error", "Too many pending requests")));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(sendError(e));
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> sendEmailSync(EmailRequest request) {
         try {
             Map<String, Object> result = emailService.sendEmail(request);
             return ResponseEntity.ok(result);
-        } catch (IllegalArgumentException e) {
+        } catch (Exception e) {
+            return sendError(e);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> sendError(Throwable e) {
+        if (e instanceof IllegalArgumentException) {
             log.warn("Invalid email request: {}", e.getMessage());
             return ResponseEntity.badRequest()
                 .body(Map.of("error", e.getMessage()));
-        } catch (Exception e) {
-            log.error("Error sending email", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body(Map.of("error", "Failed to send email"));
         }
+
+        log.error("Error sending email", e);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            .body(Map.of("error", "Failed to send email"));
     }
 
     /**
@@ -81,6 +145,43 @@ public class EmailController {
         }
     }
 
+    /**
+     * Send a large number of email notifications as a stream.
+     *
+     * The body is newline-delimited JSON with one email request per line.
+     * Records are processed as they are read and a result line is streamed
+     * back for each one, followed by progress lines and a final summary.
+     * At most email.stream.executor.max-size streams run at once; further
+     * requests get 503 with Retry-After.
+     *
+     * @param request HTTP request with the NDJSON body
+     * @return NDJSON results, or 503 if too many streams are running
+     */
+    @PostMapping(value = "/send-stream", consumes = "application/x-ndjson", produces = "application/x-ndjson")
+    @PreAuthorize("hasAuthority('SCOPE_email:send_batch')")
+    public ResponseEntity<?> sendStream(HttpServletRequest request) {
+        log.info("Received streaming send request");
+
+        if (!streamSlots.tryAcquire()) {
+            log.warn("All {} stream slots are busy, rejecting request", streamMaxSize);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("error", "Too many concurrent streams"));
+        }
+
+        StreamingResponseBody body = output -> {
+            try {
+                streamProcessor.process(request.getInputStream(), output);
+            } finally {
+                streamSlots.release();
+            }
+        };
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType("application/x-ndjson"))
+            .body(body);
+    }
+
     /**
      * Get delivery status for an email.
      *
@@ -161,16 +262,49 @@ public class EmailController {
         }
     }
 
+    /**
+     * Refresh cached email templates on all replicas.
+     * Called hourly by CronManager, which has no JWT and authenticates
+     * with the shared cron token instead; see
+     * {@link ee.buerokratt.email.config.SecurityConfig}.
+     *
+     * @return Status of refresh operation
+     */
+    @PostMapping("/refresh-templates")
+    public ResponseEntity<Map<String, String>> refreshTemplates() {
+        log.info("Refreshing email templates");
+
+        try {
+            templateService.refreshTemplates();
+            return ResponseEntity.ok(Map.of("status", "refreshed"));
+        } catch (Exception e) {
+            log.error("Error refreshing templates", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Failed to refresh templates"));
+        }
+    }
+
     /**
      * Health check endpoint.
      *
-     * @return Service health status
+     * Reports the cached result of the background provider probes, so
+     * calling it does not open a connection to the provider.
+     *
+     * @return Service health status, 503 if a provider is unhealthy
      */
     @GetMapping("/health")
-    public ResponseEntity<Map<String, String>> health() {
-        return ResponseEntity.ok(Map.of(
-            "status", "UP",
-            "service", "email-notification-service"
-        ));
+    public ResponseEntity<Map<String, Object>> health() {
+        boolean healthy = providerHealthMonitor.isHealthy();
+
+        Map<String, Object> providers = new LinkedHashMap<>();
+        providerHealthMonitor.getResults().forEach((name, result) ->
+            providers.put(name, providerHealthMonitor.toDetails(result)));
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", healthy ? "UP" : "DOWN");
+        body.put("service", "email-notification-service");
+        body.put("providers", providers);
+
+        return ResponseEntity.status(healthy ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(body);
     }
 }
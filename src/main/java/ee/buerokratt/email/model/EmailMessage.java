@@ -56,6 +56,16 @@ public class EmailMessage {
      */
     private String textBody;
 
+    /**
+     * Claim-check reference to the HTML body when it is stored outside the message.
+     */
+    private String htmlBodyRef;
+
+    /**
+     * Claim-check reference to the plain text body when it is stored outside the message.
+     */
+    private String textBodyRef;
+
     /**
      * Template ID used for rendering.
      */
@@ -119,6 +129,8 @@ public class EmailMessage {
     public String getSubject() { return subject; }
     public String getHtmlBody() { return htmlBody; }
     public String getTextBody() { return textBody; }
+    public String getHtmlBodyRef() { return htmlBodyRef; }
+    public String getTextBodyRef() { return textBodyRef; }
     public String getTemplateId() { return templateId; }
     public String getPriority() { return priority; }
     public String getLocale() { return locale; }
@@ -140,6 +152,8 @@ public class EmailMessage {
     public void setSubject(String subject) { this.subject = subject; }
     public void setHtmlBody(String htmlBody) { this.htmlBody = htmlBody; }
     public void setTextBody(String textBody) { this.textBody = textBody; }
+    public void setHtmlBodyRef(String htmlBodyRef) { this.htmlBodyRef = htmlBodyRef; }
+    public void setTextBodyRef(String textBodyRef) { this.textBodyRef = textBodyRef; }
     public void setTemplateId(String templateId) { this.templateId = templateId; }
     public void setPriority(String priority) { this.priority = priority; }
     public void setLocale(String locale) { this.locale = locale; }
@@ -168,6 +182,8 @@ public class EmailMessage {
         public Builder subject(String subject) { message.subject = subject; return this; }
         public Builder htmlBody(String htmlBody) { message.htmlBody = htmlBody; return this; }
         public Builder textBody(String textBody) { message.textBody = textBody; return this; }
+        public Builder htmlBodyRef(String htmlBodyRef) { message.htmlBodyRef = htmlBodyRef; return this; }
+        public Builder textBodyRef(String textBodyRef) { message.textBodyRef = textBodyRef; return this; }
         public Builder templateId(String templateId) { message.templateId = templateId; return this; }
         public Builder priority(String priority) { message.priority = priority; return this; }
         public Builder locale(String locale) { message.locale = locale; return this; }
@@ -0,0 +1,158 @@
+package ee.buerokratt.email.service;
+
+import com.google.common.hash.Hashing;
+import ee.buerokratt.email.model.EmailMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Claim-check store for large rendered email bodies.
+ *
+ * Bodies above the size threshold are stored in Redis under the SHA-256
+ * of their content and the queued message carries only the reference, so
+ * large bodies are not held by the broker on the main, retry and dead
+ * letter queues. Identical bodies, such as one announcement sent to many
+ * recipients, are stored once. Workers fetch bodies back just before
+ * sending.
+ *
+ * Stored bodies expire after the configured TTL, which must cover the
+ * retry and dead letter retention of the queues.
+ */
+@Component
+public class ClaimCheckStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ClaimCheckStore.class);
+    private static final String REF_PREFIX = "sha256:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry registry;
+
+    public ClaimCheckStore(StringRedisTemplate redisTemplate, MeterRegistry registry) {
+        this.redisTemplate = redisTemplate;
+        this.registry = registry;
+    }
+
+    @Value("${spring.application.name:email-notification-service}")
+    private String applicationName;
+
+    @Value("${email.claim-check.enabled:false}")
+    private boolean enabled;
+
+    @Value("${email.claim-check.threshold:16384}")
+    private int threshold;
+
+    @Value("${email.claim-check.ttl:172800000}")
+    private long ttlMs;
+
+    @Value("${email.claim-check.key-prefix:email:body:}")
+    private String keyPrefix;
+
+    private Counter storedCounter;
+    private Counter deduplicatedCounter;
+    private Counter missingCounter;
+
+    @PostConstruct
+    public void init() {
+        storedCounter = Counter.builder("email_claim_check_stored_total")
+            .description("Bodies moved out of queued messages")
+            .tag("application", applicationName)
+            .register(registry);
+
+        deduplicatedCounter = Counter.builder("email_claim_check_deduplicated_total")
+            .description("Bodies already present in the store")
+            .tag("application", applicationName)
+            .register(registry);
+
+        missingCounter = Counter.builder("email_claim_check_missing_total")
+            .description("Referenced bodies not found when sending")
+            .tag("application", applicationName)
+            .register(registry);
+    }
+
+    /**
+     * Move large bodies of a message into the store, replacing them with
+     * references. If the store is unavailable the bodies stay inline.
+     *
+     * @param message Email message, modified in place
+     */
+    public void checkIn(EmailMessage message) {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            if (isLarge(message.getHtmlBody())) {
+                message.setHtmlBodyRef(store(message.getHtmlBody()));
+                message.setHtmlBody(null);
+            }
+            if (isLarge(message.getTextBody())) {
+                message.setTextBodyRef(store(message.getTextBody()));
+                message.setTextBody(null);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Claim-check store unavailable, sending body inline: event={}, error={}",
+                message.getEventId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Fetch referenced bodies of a message back from the store.
+     *
+     * @param message Email message, modified in place
+     * @throws IllegalStateException If a referenced body is no longer stored
+     */
+    public void checkOut(EmailMessage message) {
+        if (message.getHtmlBodyRef() != null) {
+            message.setHtmlBody(fetch(message.getHtmlBodyRef(), message.getEventId()));
+            message.setHtmlBodyRef(null);
+        }
+        if (message.getTextBodyRef() != null) {
+            message.setTextBody(fetch(message.getTextBodyRef(), message.getEventId()));
+            message.setTextBodyRef(null);
+        }
+    }
+
+    private boolean isLarge(String body) {
+        // Cheap check first: UTF-8 needs at least one byte per char
+        return body != null && body.length() >= threshold / 3
+            && body.getBytes(StandardCharsets.UTF_8).length >= threshold;
+    }
+
+    private String store(String body) {
+        String hash = Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString();
+        String key = keyPrefix + hash;
+        Duration ttl = Duration.ofMillis(ttlMs);
+
+        Boolean created = redisTemplate.opsForValue().setIfAbsent(key, body, ttl);
+        if (Boolean.TRUE.equals(created)) {
+            storedCounter.increment();
+        } else {
+            // Same content already stored; keep it alive for this message too
+            redisTemplate.expire(key, ttl);
+            deduplicatedCounter.increment();
+        }
+        return REF_PREFIX + hash;
+    }
+
+    private String fetch(String ref, String eventId) {
+        if (!ref.startsWith(REF_PREFIX)) {
+            throw new IllegalStateException("Unsupported body reference: " + ref);
+        }
+
+        String body = redisTemplate.opsForValue().get(keyPrefix + ref.substring(REF_PREFIX.length()));
+        if (body == null) {
+            missingCounter.increment();
+            throw new IllegalStateException("Email body expired from claim-check store: event=" + eventId);
+        }
+        return body;
+    }
+}
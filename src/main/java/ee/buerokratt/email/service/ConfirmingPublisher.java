@@ -0,0 +1,322 @@
+package ee.buerokratt.email.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes messages to RabbitMQ with asynchronous publisher confirms.
+ *
+ * Each publish carries correlation data for its event ID and returns
+ * without waiting for the broker, so confirms for many messages are in
+ * flight at once. The number of unconfirmed messages is capped; callers
+ * wait briefly for a free slot and fail if none frees up.
+ *
+ * Messages that are nacked, returned as unroutable or not confirmed in
+ * time are republished after a backoff, up to a maximum number of attempts.
+ * A confirm that arrives after its timeout still counts if it comes in
+ * before the republish is sent.
+ */
+@Component
+public class ConfirmingPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(ConfirmingPublisher.class);
+    private final RabbitTemplate rabbitTemplate;
+    private final MeterRegistry registry;
+
+    public ConfirmingPublisher(RabbitTemplate rabbitTemplate, MeterRegistry registry) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.registry = registry;
+    }
+
+    @Value("${spring.application.name:email-notification-service}")
+    private String applicationName;
+
+    @Value("${rabbitmq.publisher.confirm-window:1000}")
+    private int confirmWindow;
+
+    @Value("${rabbitmq.publisher.window-timeout:5000}")
+    private long windowTimeoutMs;
+
+    @Value("${rabbitmq.publisher.confirm-timeout:10000}")
+    private long confirmTimeoutMs;
+
+    @Value("${rabbitmq.publisher.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${rabbitmq.publisher.retry-backoff:1000}")
+    private long retryBackoffMs;
+
+    private Semaphore outstanding;
+    private ScheduledExecutorService retryScheduler;
+
+    private Timer confirmTimer;
+    private Counter nackCounter;
+    private Counter returnCounter;
+    private Counter retryCounter;
+    private Counter failureCounter;
+
+    @PostConstruct
+    public void init() {
+        outstanding = new Semaphore(confirmWindow);
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "publish-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("email_publish_outstanding_confirms", outstanding,
+                permits -> confirmWindow - permits.availablePermits())
+            .description("Published messages waiting for a broker confirm")
+            .tag("application", applicationName)
+            .register(registry);
+
+        confirmTimer = Timer.builder("email_publish_confirm_latency_seconds")
+            .description("Time from publish to broker confirm")
+            .tag("application", applicationName)
+            .register(registry);
+
+        nackCounter = Counter.builder("email_publish_nacks_total")
+            .tag("application", applicationName)
+            .register(registry);
+
+        returnCounter = Counter.builder("email_publish_returns_total")
+            .description("Messages returned by the broker as unroutable")
+            .tag("application", applicationName)
+            .register(registry);
+
+        retryCounter = Counter.builder("email_publish_retries_total")
+            .tag("application", applicationName)
+            .register(registry);
+
+        failureCounter = Counter.builder("email_publish_failures_total")
+            .description("Messages given up on after all publish attempts")
+            .tag("application", applicationName)
+            .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdown();
+    }
+
+    /**
+     * Publish a message and track its confirm.
+     *
+     * @param exchange Exchange name
+     * @param routingKey Routing key
+     * @param message Message to publish
+     * @param eventId Event ID used as correlation ID
+     * @return Future completed when the broker confirms the message, or
+     *         completed exceptionally once all attempts have failed
+     * @throws IllegalStateException If no confirm slot frees up in time
+     */
+    public CompletableFuture<Void> publish(String exchange, String routingKey, Message message, String eventId) {
+        acquire(eventId);
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            send(rabbitTemplate, new Pending(exchange, routingKey, message, eventId, 1, result));
+        } catch (RuntimeException e) {
+            outstanding.release();
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Publish a message without waiting for a confirm slot.
+     *
+     * The message is sent from the retry thread once a slot is free, so
+     * this never blocks and is safe to call from confirm callbacks, which
+     * may run on the retry thread itself.
+     *
+     * @param exchange Exchange name
+     * @param routingKey Routing key
+     * @param message Message to publish
+     * @param eventId Event ID used as correlation ID
+     * @return Future completed when the broker confirms the message, or
+     *         completed exceptionally once all attempts have failed
+     */
+    public CompletableFuture<Void> publishLater(String exchange, String routingKey, Message message, String eventId) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        schedule(new Pending(exchange, routingKey, message, eventId, 1, result), 0, null);
+        return result;
+    }
+
+    /**
+     * Publish several messages on a single channel and track their confirms.
+     *
+     * Messages are sent back to back without waiting for confirms in
+     * between, so the whole batch costs one channel checkout and its
+     * confirms arrive pipelined.
+     *
+     * @param exchange Exchange name
+     * @param routingKey Routing key
+     * @param messages Messages to publish
+     * @param eventIds Event IDs used as correlation IDs, in message order
+     * @return Per message, a future completed when the broker confirms it;
+     *         messages that could not be sent get a failed future
+     */
+    public List<CompletableFuture<Void>> publishAll(String exchange, String routingKey,
+                                                    List<Message> messages, List<String> eventIds) {
+        List<CompletableFuture<Void>> results = new ArrayList<>(messages.size());
+
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (int i = 0; i < messages.size(); i++) {
+                    acquire(eventIds.get(i));
+
+                    CompletableFuture<Void> result = new CompletableFuture<>();
+                    try {
+                        send(operations, new Pending(exchange, routingKey, messages.get(i), eventIds.get(i), 1, result));
+                    } catch (RuntimeException e) {
+                        outstanding.release();
+                        throw e;
+                    }
+                    results.add(result);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // Messages not sent yet fail; those already sent keep their confirm tracking
+            log.error("Batch publish to {} stopped after {} of {} messages", exchange, results.size(), messages.size(), e);
+            while (results.size() < messages.size()) {
+                results.add(CompletableFuture.failedFuture(e));
+            }
+        }
+
+        return results;
+    }
+
+    private void acquire(String eventId) {
+        try {
+            if (!outstanding.tryAcquire(windowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Too many unconfirmed messages, publish rejected: " + eventId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting to publish: " + eventId, e);
+        }
+    }
+
+    /**
+     * Send one attempt. The caller must hold a confirm slot, which is
+     * released when the attempt is confirmed or fails.
+     */
+    private void send(RabbitOperations operations, Pending pending) {
+        CorrelationData correlation = new CorrelationData(pending.eventId());
+        long startTime = System.nanoTime();
+
+        operations.send(pending.exchange(), pending.routingKey(), pending.message(), correlation);
+
+        // Time out on a derived future so the correlation future can still take a late confirm
+        correlation.getFuture()
+            .thenApply(Optional::of)
+            .completeOnTimeout(Optional.empty(), confirmTimeoutMs, TimeUnit.MILLISECONDS)
+            .whenComplete((received, e) -> {
+                outstanding.release();
+                confirmTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+                ReturnedMessage returned = correlation.getReturned();
+                Confirm confirm = received != null ? received.orElse(null) : null;
+                if (e != null) {
+                    retry(pending, "confirm failed: " + e, null);
+                } else if (confirm == null) {
+                    retry(pending, "confirm not received in time", correlation);
+                } else if (!confirm.isAck()) {
+                    nackCounter.increment();
+                    retry(pending, "nacked: " + confirm.getReason(), null);
+                } else if (returned != null) {
+                    returnCounter.increment();
+                    retry(pending, "returned: " + returned.getReplyText(), null);
+                } else {
+                    pending.result().complete(null);
+                }
+            });
+    }
+
+    /**
+     * @param timedOut Correlation of an attempt that timed out, whose confirm may still arrive, or null
+     */
+    private void retry(Pending pending, String reason, CorrelationData timedOut) {
+        if (pending.attempt() >= maxAttempts) {
+            failureCounter.increment();
+            log.error("Giving up publishing {} to {} after {} attempts, last {}",
+                pending.eventId(), pending.exchange(), pending.attempt(), reason);
+            // Completed on the retry thread so callers may publish from their callbacks
+            retryScheduler.execute(() -> pending.result().completeExceptionally(
+                new IllegalStateException("Publish not confirmed for " + pending.eventId() + ": " + reason)));
+            return;
+        }
+
+        log.warn("Publish of {} to {} failed ({}), retrying", pending.eventId(), pending.exchange(), reason);
+        retryCounter.increment();
+        schedule(pending.nextAttempt(), retryBackoffMs * pending.attempt(), timedOut);
+    }
+
+    /**
+     * Republish on the retry thread, never on the connection thread that
+     * delivered the confirm. Waits for a free confirm slot without blocking,
+     * and skips the republish if the timed out attempt was confirmed late.
+     */
+    private void schedule(Pending pending, long delayMs, CorrelationData timedOut) {
+        retryScheduler.schedule(() -> {
+            if (isConfirmed(timedOut)) {
+                log.info("Late confirm for {}, not republishing", pending.eventId());
+                pending.result().complete(null);
+                return;
+            }
+
+            if (!outstanding.tryAcquire()) {
+                schedule(pending, retryBackoffMs, timedOut);
+                return;
+            }
+
+            try {
+                send(rabbitTemplate, pending);
+            } catch (RuntimeException e) {
+                outstanding.release();
+                retry(pending, "send failed: " + e.getMessage(), null);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isConfirmed(CorrelationData correlation) {
+        if (correlation == null || correlation.getFuture().isCompletedExceptionally()) {
+            return false;
+        }
+        Confirm confirm = correlation.getFuture().getNow(null);
+        return confirm != null && confirm.isAck() && correlation.getReturned() == null;
+    }
+
+    private record Pending(String exchange, String routingKey, Message message, String eventId,
+                           int attempt, CompletableFuture<Void> result) {
+
+        Pending nextAttempt() {
+            return new Pending(exchange, routingKey, message, eventId, attempt + 1, result);
+        }
+    }
+}
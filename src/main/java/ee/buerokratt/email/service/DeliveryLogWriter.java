@@ -0,0 +1,270 @@
+package ee.buerokratt.email.service;
+
+import ee.buerokratt.email.model.EmailRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous writer for email delivery records.
+ *
+ * Requests are buffered in a bounded queue and a background thread
+ * writes them to Resql as multi-row inserts, flushing when a batch is
+ * full or the flush interval has passed. When the buffer is full the
+ * caller waits briefly and then writes its record synchronously, so
+ * records are not dropped under load.
+ */
+@Component
+public class DeliveryLogWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryLogWriter.class);
+    private final RestTemplate restTemplate;
+    private final MeterRegistry registry;
+
+    public DeliveryLogWriter(RestTemplate restTemplate, MeterRegistry registry) {
+        this.restTemplate = restTemplate;
+        this.registry = registry;
+    }
+
+    @Value("${spring.application.name:email-notification-service}")
+    private String applicationName;
+
+    @Value("${resql.url:http://resql:8082}")
+    private String resqlUrl;
+
+    @Value("${email.delivery-log.buffer-size:10000}")
+    private int bufferSize;
+
+    @Value("${email.delivery-log.batch-size:200}")
+    private int batchSize;
+
+    @Value("${email.delivery-log.flush-interval:500}")
+    private long flushIntervalMs;
+
+    @Value("${email.delivery-log.block-timeout:100}")
+    private long blockTimeoutMs;
+
+    @Value("${email.delivery-log.flush-on-shutdown:true}")
+    private boolean flushOnShutdown;
+
+    @Value("${email.delivery-log.shutdown-timeout:10000}")
+    private long shutdownTimeoutMs;
+
+    private BlockingQueue<Map<String, Object>> buffer;
+    private Thread writerThread;
+    private volatile boolean running;
+    // Held for reading while offering, for writing while stopping, so no record lands after the final drain
+    private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+
+    private Timer flushTimer;
+    private Counter writtenCounter;
+    private Counter failedCounter;
+    private Counter overflowCounter;
+
+    @PostConstruct
+    public void init() {
+        buffer = new ArrayBlockingQueue<>(bufferSize);
+
+        Gauge.builder("email_delivery_log_buffer_size", buffer, BlockingQueue::size)
+            .description("Delivery records waiting to be written")
+            .tag("application", applicationName)
+            .register(registry);
+
+        flushTimer = Timer.builder("email_delivery_log_flush_duration_seconds")
+            .description("Time to write one batch of delivery records")
+            .tag("application", applicationName)
+            .register(registry);
+
+        writtenCounter = Counter.builder("email_delivery_log_written_total")
+            .tag("application", applicationName)
+            .register(registry);
+
+        failedCounter = Counter.builder("email_delivery_log_failed_total")
+            .tag("application", applicationName)
+            .register(registry);
+
+        overflowCounter = Counter.builder("email_delivery_log_overflow_total")
+            .description("Records written synchronously because the buffer was full")
+            .tag("application", applicationName)
+            .register(registry);
+
+        running = true;
+        writerThread = new Thread(this::run, "delivery-log-writer");
+        writerThread.start();
+
+        log.info("Delivery log writer started: bufferSize={}, batchSize={}, flushInterval={}ms",
+            bufferSize, batchSize, flushIntervalMs);
+    }
+
+    /**
+     * Queue a delivery record for an accepted email request.
+     *
+     * @param request Email request
+     */
+    public void enqueue(EmailRequest request) {
+        Map<String, Object> record = toRecord(request);
+
+        stopLock.readLock().lock();
+        try {
+            if (running && buffer.offer(record, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopLock.readLock().unlock();
+        }
+
+        // Buffer full or writer stopped: write on the caller thread
+        overflowCounter.increment();
+        flush(List.of(record));
+    }
+
+    /**
+     * Queue delivery records for a batch of accepted email requests.
+     *
+     * @param requests Email requests
+     */
+    public void enqueueAll(List<EmailRequest> requests) {
+        List<Map<String, Object>> overflow = new ArrayList<>();
+
+        stopLock.readLock().lock();
+        try {
+            for (EmailRequest request : requests) {
+                Map<String, Object> record = toRecord(request);
+                if (!running || !buffer.offer(record)) {
+                    overflow.add(record);
+                }
+            }
+        } finally {
+            stopLock.readLock().unlock();
+        }
+
+        if (overflow.isEmpty()) {
+            return;
+        }
+
+        // Buffer full or writer stopped: write the rest on the caller thread
+        overflowCounter.increment(overflow.size());
+        for (int from = 0; from < overflow.size(); from += batchSize) {
+            flush(overflow.subList(from, Math.min(from + batchSize, overflow.size())));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stopLock.writeLock().unlock();
+        }
+        writerThread.interrupt();
+
+        try {
+            writerThread.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!buffer.isEmpty()) {
+            log.warn("Delivery log writer stopped with {} unwritten records", buffer.size());
+        }
+    }
+
+    private void run() {
+        List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+
+        while (running || (flushOnShutdown && !buffer.isEmpty())) {
+            try {
+                if (running) {
+                    Map<String, Object> first = buffer.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    fillBatch(batch);
+                } else {
+                    buffer.drainTo(batch, batchSize);
+                }
+            } catch (InterruptedException e) {
+                // Shutdown requested; drain what is left below
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Wait for more records until the batch is full or the flush interval passes.
+     */
+    private void fillBatch(List<Map<String, Object>> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+
+        while (batch.size() < batchSize) {
+            buffer.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+
+            Map<String, Object> next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Map<String, Object>> batch) {
+        long startTime = System.nanoTime();
+
+        try {
+            restTemplate.postForObject(
+                resqlUrl + "/log-email-requests",
+                Map.of("records", batch),
+                Map.class
+            );
+            writtenCounter.increment(batch.size());
+        } catch (Exception e) {
+            failedCounter.increment(batch.size());
+            log.error("Failed to log {} email requests to Resql", batch.size(), e);
+        } finally {
+            flushTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Map<String, Object> toRecord(EmailRequest request) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("eventId", request.getEventId());
+        record.put("eventType", request.getEventType());
+        record.put("recipientEmail", request.getRecipientEmail());
+        record.put("templateId", request.getTemplateId());
+        record.put("priority", request.getPriority());
+        record.put("status", "queued");
+        record.put("createdAt", Instant.now().toString());
+        return record;
+    }
+}
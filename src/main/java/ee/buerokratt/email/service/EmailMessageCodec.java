@@ -0,0 +1,97 @@
+package ee.buerokratt.email.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import ee.buerokratt.email.model.EmailMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes email messages for the queue.
+ *
+ * Messages are written as UTF-8 JSON or, when rabbitmq.payload-format is
+ * cbor, as CBOR, which is smaller and cheaper to parse for large bodies.
+ * Decoding follows the content type of each message, so workers accept
+ * both formats and producers can be switched during a rolling upgrade.
+ *
+ * JSON is written straight to UTF-8 bytes and read straight from the
+ * AMQP body, without an intermediate String. Readers and writers are built
+ * once for EmailMessage and reuse Jackson's recycled buffers.
+ */
+@Component
+public class EmailMessageCodec {
+
+    public static final String CONTENT_TYPE_CBOR = "application/cbor";
+
+    private static final Logger log = LoggerFactory.getLogger(EmailMessageCodec.class);
+
+    private final ObjectWriter jsonWriter;
+    private final ObjectReader jsonReader;
+    private final ObjectWriter cborWriter;
+    private final ObjectReader cborReader;
+    private final boolean writeCbor;
+
+    public EmailMessageCodec(ObjectMapper objectMapper,
+                             @Value("${rabbitmq.payload-format:json}") String payloadFormat) {
+        // Same modules and settings as the JSON mapper, so both formats map fields identically
+        ObjectMapper cborMapper = objectMapper.copyWith(new CBORFactory());
+
+        this.jsonWriter = objectMapper.writerFor(EmailMessage.class);
+        this.jsonReader = objectMapper.readerFor(EmailMessage.class);
+        this.cborWriter = cborMapper.writerFor(EmailMessage.class);
+        this.cborReader = cborMapper.readerFor(EmailMessage.class);
+        this.writeCbor = "cbor".equalsIgnoreCase(payloadFormat);
+
+        log.info("Queue payload format: {}", writeCbor ? "cbor" : "json");
+    }
+
+    /**
+     * @return Content type of encoded messages
+     */
+    public String contentType() {
+        return writeCbor ? CONTENT_TYPE_CBOR : MessageProperties.CONTENT_TYPE_JSON;
+    }
+
+    /**
+     * @return Content encoding of encoded messages, or null for binary formats
+     */
+    public String contentEncoding() {
+        return writeCbor ? null : StandardCharsets.UTF_8.name();
+    }
+
+    /**
+     * Encode an email message in the configured format.
+     *
+     * @param message Email message
+     * @return Encoded body
+     * @throws IOException If the message cannot be serialized
+     */
+    public byte[] encode(EmailMessage message) throws IOException {
+        return writeCbor ? cborWriter.writeValueAsBytes(message) : jsonWriter.writeValueAsBytes(message);
+    }
+
+    /**
+     * Decode an email message from an AMQP message body, choosing the
+     * format from its content type. Messages without one are read as JSON.
+     *
+     * @param message AMQP message
+     * @return Email message
+     * @throws IOException If the body is not a valid email message
+     */
+    public EmailMessage decode(Message message) throws IOException {
+        String contentType = message.getMessageProperties().getContentType();
+        if (contentType != null && contentType.startsWith(CONTENT_TYPE_CBOR)) {
+            return cborReader.readValue(message.getBody());
+        }
+        return jsonReader.readValue(message.getBody());
+    }
+}
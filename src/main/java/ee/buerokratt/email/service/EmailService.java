@@ -4,18 +4,28 @@ import ee.buerokratt.email.model.DeliveryStatus;
 import ee.buerokratt.email.model.EmailMessage;
 import ee.buerokratt.email.model.EmailRequest;
 import ee.buerokratt.email.model.EmailResult;
+import ee.buerokratt.email.service.idempotency.IdempotencyStore;
 import ee.buerokratt.email.service.provider.EmailProvider;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Main service for handling email notifications.
@@ -31,13 +41,24 @@ public class EmailService {
     private final TemplateService templateService;
     private final EmailProvider emailProvider;
     private final RestTemplate restTemplate;
+    private final IdempotencyStore idempotencyStore;
+    private final DeliveryLogWriter deliveryLogWriter;
+    private final Executor batchExecutor;
+    private final Executor acceptExecutor;
 
     public EmailService(QueueService queueService, TemplateService templateService,
-                        EmailProvider emailProvider, RestTemplate restTemplate) {
+                        EmailProvider emailProvider, RestTemplate restTemplate,
+                        IdempotencyStore idempotencyStore, DeliveryLogWriter deliveryLogWriter,
+                        @Qualifier("emailBatchExecutor") Executor batchExecutor,
+                        @Qualifier("emailAcceptExecutor") Executor acceptExecutor) {
         this.queueService = queueService;
         this.templateService = templateService;
         this.emailProvider = emailProvider;
         this.restTemplate = restTemplate;
+        this.idempotencyStore = idempotencyStore;
+        this.deliveryLogWriter = deliveryLogWriter;
+        this.batchExecutor = batchExecutor;
+        this.acceptExecutor = acceptExecutor;
     }
 
     @Value("${email.from:noreply@buerokratt.ee}")
@@ -52,106 +73,189 @@ public class EmailService {
     @Value("${email.idempotency.enabled:true}")
     private boolean idempotencyEnabled;
 
-    private Map<String, Instant> recentEvents = new HashMap<>();
+    @Value("${email.batch.window:64}")
+    private int batchWindow;
+
+    @Value("${email.render.mode:api}")
+    private String renderMode;
+
+    @Value("${email.send.confirm-wait:15000}")
+    private long confirmWaitMs;
 
     @PostConstruct
     public void init() {
         log.info("Email Notification Service initialized");
         log.info("Email provider: {}", emailProvider.getClass().getSimpleName());
         log.info("From: {}", fromEmail);
+        log.info("Render mode: {}", renderMode);
     }
 
     /**
      * Send an email notification.
      *
+     * Returns once the broker has confirmed the message. If the message
+     * cannot be queued, the idempotency claim is released so the client
+     * can retry the same event.
+     *
      * @param request Email request
      * @return Result with message ID and status
+     * @throws IllegalStateException If the message was not confirmed, or not within the confirm wait
      */
     public Map<String, Object> sendEmail(EmailRequest request) {
-        // Validate request
-        validateRequest(request);
-
-        // Check idempotency
-        if (idempotencyEnabled && request.getEventId() != null) {
-            if (isDuplicate(request.getEventId())) {
-                log.warn("Duplicate event detected: {}", request.getEventId());
-                return Map.of(
-                    "messageId", request.getEventId(),
-                    "status", "duplicate",
-                    "message", "Event already processed"
-                );
-            }
+        Accepted accepted = accept(request);
+        if (accepted.confirmed() == null) {
+            return duplicateResult(request);
         }
 
-        // Generate event ID if not provided
-        if (request.getEventId() == null) {
-            request.setEventId(UUID.randomUUID().toString());
+        try {
+            accepted.confirmed().get(confirmWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Outcome unknown: keep the claim unless the confirm finally fails
+            accepted.confirmed().whenCompleteAsync((ignored, error) -> {
+                if (error != null) {
+                    releaseClaim(accepted);
+                }
+            }, batchExecutor);
+            throw new IllegalStateException("Email not confirmed by the queue within " + confirmWaitMs + "ms: "
+                + request.getEventId());
+        } catch (ExecutionException e) {
+            return complete(accepted, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for queue confirm: " + request.getEventId(), e);
         }
 
-        // Enrich request with defaults
-        enrichRequest(request);
-
-        // Build email message
-        EmailMessage message = buildEmailMessage(request);
-
-        // Render template
-        templateService.renderTemplate(message);
-
-        // Publish to queue
-        queueService.publishEmail(message);
+        return complete(accepted, null);
+    }
 
-        // Log to database via Resql
-        logEmailRequest(request);
+    /**
+     * Send an email notification without holding the caller's thread.
+     *
+     * The request is validated on the calling thread; rendering and
+     * publishing run on the accept executor. The returned future completes
+     * once the broker has confirmed the message, or exceptionally if it
+     * could not be queued, in which case the idempotency claim is released.
+     *
+     * @param request Email request
+     * @return Future result with message ID and status
+     * @throws java.util.concurrent.RejectedExecutionException If the accept queue is full
+     */
+    public CompletableFuture<Map<String, Object>> sendEmailAsync(EmailRequest request) {
+        return sendEmailAsync(request, acceptExecutor, batchExecutor);
+    }
 
-        // Track for idempotency
-        if (idempotencyEnabled) {
-            trackEvent(request.getEventId());
-        }
+    /**
+     * Send an email notification without holding the caller's thread,
+     * running all of its work on the given executor.
+     *
+     * @param request Email request
+     * @param executor Executor for rendering, publishing and completion
+     * @return Future result with message ID and status
+     * @throws java.util.concurrent.RejectedExecutionException If the executor rejects the send
+     */
+    public CompletableFuture<Map<String, Object>> sendEmailAsync(EmailRequest request, Executor executor) {
+        return sendEmailAsync(request, executor, executor);
+    }
 
-        return Map.of(
-            "messageId", request.getEventId(),
-            "status", "queued",
-            "queuedAt", Instant.now().toString()
-        );
+    private CompletableFuture<Map<String, Object>> sendEmailAsync(EmailRequest request, Executor acceptOn,
+                                                                  Executor completeOn) {
+        validateRequest(request);
+        return CompletableFuture.supplyAsync(() -> accept(request), acceptOn)
+            .thenCompose(accepted -> accepted.confirmed() == null
+                ? CompletableFuture.completedFuture(duplicateResult(request))
+                // Off the confirm thread: logging and releasing the claim make blocking calls
+                : accepted.confirmed().handleAsync((ignored, e) -> complete(accepted, e), completeOn));
     }
 
     /**
      * Send multiple emails in batch.
      *
+     * Runs as a pipeline: validation and idempotency checks are done for
+     * the whole batch up front, then items are rendered on the batch
+     * executor and published as they finish, in chunks of whatever has
+     * rendered since the last publish, each chunk on one channel. An item
+     * holds a window slot from the start of its render until the broker
+     * confirms it, which bounds the items in memory. Delivery records are
+     * logged in one go at the end.
+     *
      * @param requests List of email requests
-     * @return Batch result with count and message IDs
+     * @return Batch result with count, message IDs and per-stage wall times
      */
     public Map<String, Object> sendBatch(List<EmailRequest> requests) {
         log.info("Processing batch of {} emails", requests.size());
 
-        // Process in parallel with limited concurrency
-        int batchSize = 10;
-        List<Map<String, Object>> results = new ArrayList<>();
+        long batchStart = System.nanoTime();
+        StageTimings timings = new StageTimings();
+        AtomicReferenceArray<Map<String, Object>> results = new AtomicReferenceArray<>(requests.size());
+
+        // Stage 1: validate and assign event IDs
+        long stageStart = System.nanoTime();
+        boolean[] clientEventIds = new boolean[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            EmailRequest request = requests.get(i);
+            try {
+                validateRequest(request);
+                clientEventIds[i] = request.getEventId() != null;
+                if (!clientEventIds[i]) {
+                    request.setEventId(UUID.randomUUID().toString());
+                }
+            } catch (IllegalArgumentException e) {
+                results.set(i, errorResult(e));
+            }
+        }
+        timings.validate.record(stageStart, System.nanoTime());
+
+        // Stage 2: claim idempotency keys for the whole batch in one round trip
+        stageStart = System.nanoTime();
+        boolean[] claimed = claimBatch(requests, results);
+        for (int i = 0; i < requests.size(); i++) {
+            if (results.get(i) == null && idempotencyEnabled && !claimed[i] && clientEventIds[i]) {
+                log.warn("Duplicate event detected: {}", requests.get(i).getEventId());
+                results.set(i, duplicateResult(requests.get(i)));
+            }
+        }
+        timings.idempotency.record(stageStart, System.nanoTime());
 
-        List<List<EmailRequest>> batches = partition(requests, batchSize);
+        // Stages 3 and 4: render and publish with a bounded number of items in flight
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (results.get(i) == null) {
+                pending.add(i);
+            }
+        }
 
-        for (List<EmailRequest> batch : batches) {
-            List<CompletableFuture<Map<String, Object>>> futures = batch.stream()
-                .map(req -> CompletableFuture.supplyAsync(() -> {
-                    try {
-                        return sendEmail(req);
-                    } catch (Exception e) {
-                        log.error("Error sending email in batch", e);
-                        return Map.<String, Object>of("error", e.getMessage());
-                    }
-                }))
-                .toList();
+        Map<Integer, CompletableFuture<Void>> confirms = renderAndPublish(requests, pending, claimed, results, timings);
+
+        // Wait for the last confirms; failures are read per future below
+        CompletableFuture.allOf(confirms.values().toArray(new CompletableFuture[0]))
+            .exceptionally(e -> null)
+            .join();
+
+        List<EmailRequest> accepted = new ArrayList<>(confirms.size());
+        for (Map.Entry<Integer, CompletableFuture<Void>> confirm : confirms.entrySet()) {
+            EmailRequest request = requests.get(confirm.getKey());
+            if (!confirm.getValue().isCompletedExceptionally()) {
+                results.set(confirm.getKey(), queuedResult(request));
+                accepted.add(request);
+            } else {
+                if (claimed[confirm.getKey()]) {
+                    idempotencyStore.release(request.getEventId());
+                }
+                results.set(confirm.getKey(), Map.of("error", "Failed to publish email to queue"));
+            }
+        }
 
-            // Wait for batch to complete
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        // Stage 5: log all accepted requests at once
+        stageStart = System.nanoTime();
+        deliveryLogWriter.enqueueAll(accepted);
+        timings.log.record(stageStart, System.nanoTime());
 
-            // Collect results
-            results.addAll(futures.stream()
-                .map(CompletableFuture::join)
-                .toList());
+        List<Map<String, Object>> resultList = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            resultList.add(results.get(i));
         }
 
-        int successCount = (int) results.stream()
+        int successCount = (int) resultList.stream()
             .filter(r -> r.containsKey("messageId"))
             .count();
 
@@ -159,7 +263,8 @@ public class EmailService {
             "total", requests.size(),
             "success", successCount,
             "failed", requests.size() - successCount,
-            "results", results
+            "results", resultList,
+            "metrics", timings.toMap(System.nanoTime() - batchStart)
         );
     }
 
@@ -230,6 +335,283 @@ public class EmailService {
         return false;
     }
 
+    /**
+     * Claim, render and publish a single email.
+     *
+     * @return Accepted request with its confirm future, or without one if it is a duplicate
+     */
+    private Accepted accept(EmailRequest request) {
+        // Validate request
+        validateRequest(request);
+
+        // Generate event ID if not provided
+        boolean clientEventId = request.getEventId() != null;
+        if (!clientEventId) {
+            request.setEventId(UUID.randomUUID().toString());
+        }
+
+        // Check idempotency
+        boolean claimed = false;
+        if (idempotencyEnabled) {
+            claimed = idempotencyStore.tryAcquire(request.getEventId());
+            if (!claimed && clientEventId) {
+                log.warn("Duplicate event detected: {}", request.getEventId());
+                return new Accepted(request, false, null);
+            }
+        }
+
+        try {
+            EmailMessage message = prepareMessage(request);
+
+            // Render template, unless workers render at send time
+            render(message);
+
+            // Publish to queue
+            return new Accepted(request, claimed, queueService.publishEmail(message));
+        } catch (RuntimeException e) {
+            // Allow the client to retry an event that was never queued
+            if (claimed) {
+                idempotencyStore.release(request.getEventId());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Finish a single send once its confirm outcome is known.
+     *
+     * @param error Confirm failure, or null if the broker confirmed the message
+     * @return Queued result
+     * @throws IllegalStateException If the message was not confirmed
+     */
+    private Map<String, Object> complete(Accepted accepted, Throwable error) {
+        EmailRequest request = accepted.request();
+        if (error != null) {
+            // Never queued, so the client may retry the same event
+            releaseClaim(accepted);
+            log.error("Email not confirmed by the queue: {}", request.getEventId(), error);
+            throw new IllegalStateException("Failed to queue email: " + request.getEventId(), error);
+        }
+
+        // Log to database via Resql (buffered, written in batches)
+        deliveryLogWriter.enqueue(request);
+
+        return queuedResult(request);
+    }
+
+    private void releaseClaim(Accepted accepted) {
+        if (accepted.claimed()) {
+            idempotencyStore.release(accepted.request().getEventId());
+        }
+    }
+
+    /**
+     * A single request handed to the queue.
+     *
+     * @param request Email request
+     * @param claimed True if this request claimed its idempotency key
+     * @param confirmed Broker confirm, or null for a duplicate that was not published
+     */
+    private record Accepted(EmailRequest request, boolean claimed, CompletableFuture<Void> confirmed) {
+    }
+
+    /**
+     * Build and render a single batch item.
+     *
+     * @return Rendered message ready to publish
+     */
+    private EmailMessage render(EmailRequest request, StageTimings timings) {
+        long start = System.nanoTime();
+        try {
+            EmailMessage message = prepareMessage(request);
+            render(message);
+            return message;
+        } finally {
+            timings.render.record(start, System.nanoTime());
+        }
+    }
+
+    /**
+     * Render batch items on the batch executor and publish them as they
+     * finish. A window slot is taken before an item is rendered and given
+     * back once its publish is confirmed or fails, or its render fails.
+     *
+     * @param pending Indexes of the requests to send
+     * @return Confirm future per published index; items that failed to render get an error result instead
+     */
+    private Map<Integer, CompletableFuture<Void>> renderAndPublish(List<EmailRequest> requests, List<Integer> pending,
+                                                                  boolean[] claimed,
+                                                                  AtomicReferenceArray<Map<String, Object>> results,
+                                                                  StageTimings timings) {
+        Semaphore window = new Semaphore(batchWindow);
+        AtomicReferenceArray<EmailMessage> rendered = new AtomicReferenceArray<>(requests.size());
+        BlockingQueue<Integer> finished = new LinkedBlockingQueue<>();
+        Map<Integer, CompletableFuture<Void>> confirms = new LinkedHashMap<>();
+
+        int next = 0;
+        int rendering = 0;
+        while (next < pending.size() || rendering > 0) {
+            List<Integer> done = new ArrayList<>();
+            finished.drainTo(done, batchWindow);
+
+            if (done.isEmpty() && next < pending.size()) {
+                // Block for a slot only when nothing is rendering; otherwise publish what finishes first
+                if (rendering == 0) {
+                    window.acquireUninterruptibly();
+                } else if (!window.tryAcquire()) {
+                    done.add(awaitRender(finished));
+                    finished.drainTo(done, batchWindow - 1);
+                }
+
+                if (done.isEmpty()) {
+                    submitRender(requests, pending.get(next++), claimed, results, rendered, finished, window, timings);
+                    rendering++;
+                    continue;
+                }
+            } else if (done.isEmpty()) {
+                done.add(awaitRender(finished));
+                finished.drainTo(done, batchWindow - 1);
+            }
+
+            rendering -= done.size();
+            publishRendered(done, rendered, window, confirms, timings);
+        }
+
+        return confirms;
+    }
+
+    private void submitRender(List<EmailRequest> requests, int index, boolean[] claimed,
+                              AtomicReferenceArray<Map<String, Object>> results,
+                              AtomicReferenceArray<EmailMessage> rendered, BlockingQueue<Integer> finished,
+                              Semaphore window, StageTimings timings) {
+        EmailRequest request = requests.get(index);
+        CompletableFuture
+            .runAsync(() -> {
+                try {
+                    rendered.set(index, render(request, timings));
+                } catch (Exception e) {
+                    log.error("Error rendering email in batch", e);
+                    if (claimed[index]) {
+                        idempotencyStore.release(request.getEventId());
+                    }
+                    results.set(index, errorResult(e));
+                    window.release();
+                }
+            }, batchExecutor)
+            .whenComplete((ignored, e) -> finished.add(index));
+    }
+
+    /**
+     * Publish the rendered items among those just finished as one chunk.
+     * Confirm callbacks only give back the window slot; results are read
+     * once all confirms are in.
+     */
+    private void publishRendered(List<Integer> done, AtomicReferenceArray<EmailMessage> rendered, Semaphore window,
+                                 Map<Integer, CompletableFuture<Void>> confirms, StageTimings timings) {
+        List<Integer> indexes = new ArrayList<>(done.size());
+        List<EmailMessage> messages = new ArrayList<>(done.size());
+        for (int index : done) {
+            if (rendered.get(index) != null) {
+                indexes.add(index);
+                messages.add(rendered.get(index));
+                rendered.set(index, null);
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> published;
+        try {
+            published = queueService.publishAll(messages);
+        } catch (RuntimeException e) {
+            log.error("Failed to publish batch chunk of {} emails", messages.size(), e);
+            published = Collections.nCopies(messages.size(), CompletableFuture.failedFuture(e));
+        }
+        for (int i = 0; i < indexes.size(); i++) {
+            confirms.put(indexes.get(i), published.get(i).whenComplete((ignored, e) -> {
+                timings.publish.record(start, System.nanoTime());
+                window.release();
+            }));
+        }
+    }
+
+    private int awaitRender(BlockingQueue<Integer> finished) {
+        try {
+            return finished.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing batch", e);
+        }
+    }
+
+    /**
+     * Claim the idempotency keys of all requests that passed validation.
+     *
+     * @param requests Email requests
+     * @param results Results so far; requests that already have one are skipped
+     * @return Per request, true if its key was claimed
+     */
+    private boolean[] claimBatch(List<EmailRequest> requests, AtomicReferenceArray<Map<String, Object>> results) {
+        boolean[] claimed = new boolean[requests.size()];
+        if (!idempotencyEnabled) {
+            return claimed;
+        }
+
+        List<Integer> indexes = new ArrayList<>();
+        List<String> eventIds = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (results.get(i) == null) {
+                indexes.add(i);
+                eventIds.add(requests.get(i).getEventId());
+            }
+        }
+
+        boolean[] acquired = idempotencyStore.tryAcquireAll(eventIds);
+        for (int i = 0; i < indexes.size(); i++) {
+            claimed[indexes.get(i)] = acquired[i];
+        }
+        return claimed;
+    }
+
+    private void render(EmailMessage message) {
+        if ("worker".equals(renderMode)) {
+            // Fail fast on unknown templates; the worker renders before sending
+            templateService.requireTemplate(message.getTemplateId(), message.getLocale());
+        } else {
+            templateService.renderTemplate(message);
+        }
+    }
+
+    private EmailMessage prepareMessage(EmailRequest request) {
+        // Enrich request with defaults
+        enrichRequest(request);
+
+        // Build email message
+        return buildEmailMessage(request);
+    }
+
+    private Map<String, Object> queuedResult(EmailRequest request) {
+        return Map.of(
+            "messageId", request.getEventId(),
+            "status", "queued",
+            "queuedAt", Instant.now().toString()
+        );
+    }
+
+    private Map<String, Object> duplicateResult(EmailRequest request) {
+        return Map.of(
+            "messageId", request.getEventId(),
+            "status", "duplicate",
+            "message", "Event already processed"
+        );
+    }
+
+    private Map<String, Object> errorResult(Exception e) {
+        return Map.of("error", String.valueOf(e.getMessage()));
+    }
+
     private void validateRequest(EmailRequest request) {
         if (request.getRecipientEmail() == null || request.getRecipientEmail().isBlank()) {
             throw new IllegalArgumentException("Recipient email is required");
@@ -289,40 +671,46 @@ public class EmailService {
         };
     }
 
-    private boolean isDuplicate(String eventId) {
-        Instant lastSeen = recentEvents.get(eventId);
-        if (lastSeen == null) {
-            return false;
+    /**
+     * Wall time per batch stage, from the first item entering the stage to
+     * the last one leaving it. Render and publish overlap, so the stages
+     * can add up to more than the total.
+     */
+    private static class StageTimings {
+        final Span validate = new Span();
+        final Span idempotency = new Span();
+        final Span render = new Span();
+        final Span publish = new Span();
+        final Span log = new Span();
+
+        Map<String, Object> toMap(long totalNanos) {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("validateMs", validate.toMillis());
+            metrics.put("idempotencyMs", idempotency.toMillis());
+            metrics.put("renderMs", render.toMillis());
+            metrics.put("publishMs", publish.toMillis());
+            metrics.put("logMs", log.toMillis());
+            metrics.put("totalMs", totalNanos / 1_000_000.0);
+            return metrics;
         }
-        // Consider duplicate if seen in the last 24 hours
-        return lastSeen.isAfter(Instant.now().minusSeconds(86400));
     }
 
-    private void trackEvent(String eventId) {
-        recentEvents.put(eventId, Instant.now());
+    /**
+     * Earliest start and latest end recorded by any thread.
+     */
+    private static class Span {
+        private final AtomicLong start = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong end = new AtomicLong(Long.MIN_VALUE);
 
-        // Clean old entries
-        Instant cutoff = Instant.now().minusSeconds(86400);
-        recentEvents.entrySet().removeIf(e -> e.getValue().isBefore(cutoff));
-    }
+        void record(long startNanos, long endNanos) {
+            start.accumulateAndGet(startNanos, Math::min);
+            end.accumulateAndGet(endNanos, Math::max);
+        }
 
-    private void logEmailRequest(EmailRequest request) {
-        try {
-            restTemplate.postForObject(
-                resqlUrl + "/log-email-request",
-                Map.of(
-                    "eventId", request.getEventId(),
-                    "eventType", request.getEventType(),
-                    "recipientEmail", request.getRecipientEmail(),
-                    "templateId", request.getTemplateId(),
-                    "priority", request.getPriority(),
-                    "status", "queued",
-                    "createdAt", Instant.now().toString()
-                ),
-                Map.class
-            );
-        } catch (Exception e) {
-            log.error("Failed to log email request to Resql", e);
+        double toMillis() {
+            long first = start.get();
+            long last = end.get();
+            return first == Long.MAX_VALUE ? 0 : (last - first) / 1_000_000.0;
         }
     }
 
@@ -336,12 +724,4 @@ public class EmailService {
             return null;
         }
     }
-
-    private <T> List<List<T>> partition(List<T> list, int size) {
-        List<List<T>> partitions = new ArrayList<>();
-        for (int i = 0; i < list.size(); i += size) {
-            partitions.add(list.subList(i, Math.min(i + size, list.size())));
-        }
-        return partitions;
-    }
 }
@@ -0,0 +1,271 @@
+package ee.buerokratt.email.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import ee.buerokratt.email.model.EmailRequest;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Processes newline-delimited JSON email requests as a stream.
+ *
+ * Records are read one line at a time and sent on the stream executor
+ * without waiting for their broker confirms, with at most
+ * email.stream.window records in flight, so memory use does not grow
+ * with the size of the upload. A result line is written and flushed for
+ * each record as its confirm arrives, tagged with its line number,
+ * together with periodic progress lines and a final summary line.
+ */
+@Service
+public class EmailStreamProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailStreamProcessor.class);
+    private final EmailService emailService;
+    private final Validator validator;
+    private final Executor streamExecutor;
+    private final ObjectReader requestReader;
+    private final ObjectWriter resultWriter;
+
+    public EmailStreamProcessor(EmailService emailService, Validator validator, ObjectMapper objectMapper,
+                                @Qualifier("emailStreamExecutor") Executor streamExecutor) {
+        this.emailService = emailService;
+        this.validator = validator;
+        this.streamExecutor = streamExecutor;
+        this.requestReader = objectMapper.readerFor(EmailRequest.class);
+        this.resultWriter = objectMapper.writer();
+    }
+
+    @Value("${email.stream.window:128}")
+    private int window;
+
+    @Value("${email.stream.progress-interval:1000}")
+    private int progressInterval;
+
+    @Value("${email.stream.max-record-size:65536}")
+    private int maxRecordSize;
+
+    /**
+     * Read requests from the input and write results to the output until
+     * the input ends or the client goes away.
+     *
+     * @param input NDJSON email requests
+     * @param output NDJSON results
+     * @throws IOException If the output cannot be written
+     */
+    public void process(InputStream input, OutputStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        ResultWriter results = new ResultWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        Semaphore inFlight = new Semaphore(window);
+        long startTime = System.nanoTime();
+        long lineNumber = 0;
+
+        try {
+            while (true) {
+                lineNumber++;
+                String line;
+                try {
+                    line = readLine(reader);
+                } catch (IllegalArgumentException e) {
+                    results.received.incrementAndGet();
+                    results.write(lineNumber, Map.of("error", String.valueOf(e.getMessage())));
+                    continue;
+                }
+
+                if (line == null) {
+                    break;
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                results.received.incrementAndGet();
+                EmailRequest request;
+                try {
+                    request = parse(line);
+                } catch (IllegalArgumentException e) {
+                    results.write(lineNumber, Map.of("error", String.valueOf(e.getMessage())));
+                    continue;
+                }
+
+                long recordLine = lineNumber;
+                inFlight.acquireUninterruptibly();
+                send(request).whenComplete((result, e) -> {
+                    try {
+                        results.write(recordLine, e == null ? result : errorResult(e));
+                    } catch (IOException ioe) {
+                        results.failure = ioe;
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+
+                if (results.failure != null) {
+                    break;
+                }
+            }
+        } finally {
+            // Wait for all in-flight records before writing the summary
+            inFlight.acquireUninterruptibly(window);
+        }
+
+        if (results.failure != null) {
+            log.warn("Stopped email stream at line {}: client disconnected", lineNumber - 1);
+            throw results.failure;
+        }
+
+        Map<String, Object> summary = results.counts();
+        summary.put("durationMs", (System.nanoTime() - startTime) / 1_000_000);
+        results.writeLine(Map.of("summary", summary));
+        results.flush();
+
+        log.info("Processed email stream: {}", summary);
+    }
+
+    private EmailRequest parse(String line) {
+        EmailRequest request;
+        try {
+            request = requestReader.readValue(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+        }
+
+        Set<ConstraintViolation<EmailRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            throw new IllegalArgumentException(violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining(", ")));
+        }
+        return request;
+    }
+
+    private CompletableFuture<Map<String, Object>> send(EmailRequest request) {
+        try {
+            return emailService.sendEmailAsync(request, streamExecutor);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private Map<String, Object> errorResult(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof IllegalArgumentException) {
+            return Map.of("error", String.valueOf(cause.getMessage()));
+        }
+        log.error("Error sending email in stream", cause);
+        return Map.of("error", "Failed to send email");
+    }
+
+    /**
+     * Read one line, rejecting lines longer than the maximum record size
+     * so a malformed upload cannot exhaust memory. An oversized line is
+     * skipped up to its terminator and reported as an invalid record.
+     *
+     * @return Line without terminator, or null at end of input
+     */
+    private String readLine(BufferedReader reader) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c == '\r') {
+                continue;
+            }
+            if (line.length() >= maxRecordSize) {
+                while (c != -1 && c != '\n') {
+                    c = reader.read();
+                }
+                throw new IllegalArgumentException("Record exceeds maximum size of " + maxRecordSize + " characters");
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    /**
+     * Serialises result lines written from executor threads and keeps
+     * running totals for progress reporting.
+     */
+    private class ResultWriter {
+
+        private final Writer writer;
+        private final AtomicLong received = new AtomicLong();
+        private long completed;
+        private long succeeded;
+        private long duplicates;
+        private long failed;
+        private volatile IOException failure;
+
+        ResultWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        synchronized void write(long line, Map<String, Object> result) throws IOException {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("line", line);
+            entry.putAll(result);
+            writeLine(entry);
+
+            completed++;
+            if (result.containsKey("error")) {
+                failed++;
+            } else if ("duplicate".equals(result.get("status"))) {
+                duplicates++;
+            } else {
+                succeeded++;
+            }
+
+            if (completed % progressInterval == 0) {
+                writeLine(Map.of("progress", counts()));
+            }
+            // Deliver each result as soon as it is known
+            writer.flush();
+        }
+
+        synchronized void writeLine(Map<String, Object> value) throws IOException {
+            writer.write(resultWriter.writeValueAsString(value));
+            writer.write('\n');
+        }
+
+        synchronized void flush() throws IOException {
+            writer.flush();
+        }
+
+        synchronized Map<String, Object> counts() {
+            Map<String, Object> counts = new LinkedHashMap<>();
+            counts.put("received", received.get());
+            counts.put("completed", completed);
+            counts.put("success", succeeded);
+            counts.put("duplicate", duplicates);
+            counts.put("failed", failed);
+            return counts;
+        }
+    }
+}
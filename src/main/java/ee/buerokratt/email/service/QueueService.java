@@ -5,12 +5,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageBuilder;
-import org.springframework.amqp.core.MessageProperties;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service for managing email queue operations.
@@ -22,12 +24,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class QueueService {
 
     private static final Logger log = LoggerFactory.getLogger(QueueService.class);
-    private final RabbitTemplate rabbitTemplate;
-    private final ObjectMapper objectMapper;
-
-    public QueueService(RabbitTemplate rabbitTemplate, ObjectMapper objectMapper) {
-        this.rabbitTemplate = rabbitTemplate;
-        this.objectMapper = objectMapper;
+    private final EmailMessageCodec codec;
+    private final ConfirmingPublisher publisher;
+    private final ClaimCheckStore claimCheckStore;
+
+    public QueueService(EmailMessageCodec codec, ConfirmingPublisher publisher, ClaimCheckStore claimCheckStore) {
+        this.codec = codec;
+        this.publisher = publisher;
+        this.claimCheckStore = claimCheckStore;
     }
 
     @Value("${rabbitmq.exchange:email.exchange}")
@@ -45,91 +49,160 @@ public class QueueService {
     /**
      * Publish an email message to the main queue.
      *
+     * Returns once the message has been handed to the broker. Messages the
+     * broker does not confirm are republished; if every attempt fails the
+     * returned future fails and the caller decides how to report it.
+     *
      * @param message Email message to publish
+     * @return Future completed when the broker confirms the message
      */
-    public void publishEmail(EmailMessage message) {
+    public CompletableFuture<Void> publishEmail(EmailMessage message) {
         try {
-            String jsonMessage = objectMapper.writeValueAsString(message);
-
-            var builder = MessageBuilder.withBody(jsonMessage.getBytes())
-                .setContentType(MessageProperties.CONTENT_TYPE_JSON)
-                .setExpiration(String.valueOf(getMessageTtl(message.getPriority())))
-                .setHeader("event_id", message.getEventId())
-                .setHeader("event_type", message.getEventType())
-                .setHeader("priority", message.getPriority());
-
-            // Set priority header (RabbitMQ priority queues)
-            if (message.getPriority() != null) {
-                builder.setPriority(getPriorityValue(message.getPriority()));
-            }
-
-            Message rabbitMessage = builder.build();
+            Message rabbitMessage = toRabbitMessage(message);
 
-            rabbitTemplate.send(exchange, routingKey, rabbitMessage);
+            CompletableFuture<Void> confirmed = publisher.publish(
+                exchange, routingKey, rabbitMessage, message.getEventId()
+            );
 
             log.info("Published email to queue: event={}, priority={}",
                 message.getEventId(), message.getPriority());
 
+            return confirmed;
+
         } catch (Exception e) {
             log.error("Failed to publish email to queue: {}", message.getEventId(), e);
             throw new RuntimeException("Failed to publish email to queue", e);
         }
     }
 
+    /**
+     * Publish several email messages to the main queue on one channel
+     * without waiting for their confirms.
+     *
+     * @param messages Email messages to publish
+     * @return Per message, a future completed when the broker confirms it;
+     *         messages that could not be serialized or sent get a failed future
+     */
+    public List<CompletableFuture<Void>> publishAll(List<EmailMessage> messages) {
+        List<CompletableFuture<Void>> results = new ArrayList<>(Collections.nCopies(messages.size(), null));
+        List<Message> rabbitMessages = new ArrayList<>(messages.size());
+        List<String> eventIds = new ArrayList<>(messages.size());
+        List<Integer> indexes = new ArrayList<>(messages.size());
+
+        for (int i = 0; i < messages.size(); i++) {
+            EmailMessage message = messages.get(i);
+            try {
+                rabbitMessages.add(toRabbitMessage(message));
+                eventIds.add(message.getEventId());
+                indexes.add(i);
+            } catch (Exception e) {
+                log.error("Failed to serialize email for batch publish: {}", message.getEventId(), e);
+                results.set(i, CompletableFuture.failedFuture(e));
+            }
+        }
+
+        List<CompletableFuture<Void>> futures = publisher.publishAll(exchange, routingKey, rabbitMessages, eventIds);
+        for (int i = 0; i < futures.size(); i++) {
+            results.set(indexes.get(i), futures.get(i));
+        }
+
+        log.info("Published batch of {} emails to queue", rabbitMessages.size());
+        return results;
+    }
+
+    private Message toRabbitMessage(EmailMessage message) throws IOException {
+        claimCheckStore.checkIn(message);
+
+        var builder = MessageBuilder.withBody(codec.encode(message))
+            .setContentType(codec.contentType())
+            .setContentEncoding(codec.contentEncoding())
+            .setExpiration(String.valueOf(getMessageTtl(message.getPriority())))
+            .setHeader("event_id", message.getEventId())
+            .setHeader("event_type", message.getEventType())
+            .setHeader("priority", message.getPriority());
+
+        // Set priority header (RabbitMQ priority queues)
+        if (message.getPriority() != null) {
+            builder.setPriority(getPriorityValue(message.getPriority()));
+        }
+
+        return builder.build();
+    }
+
     /**
      * Publish an email message to the retry queue with delay.
      *
+     * Never waits for a confirm slot. The caller should settle the original
+     * delivery only once the returned future completes, so a retry copy the
+     * broker never confirms does not lose the email.
+     *
      * @param message Email message to retry
      * @param delayMs Delay in milliseconds
+     * @return Future completed when the broker confirms the retry copy
      */
-    public void publishToRetryQueue(EmailMessage message, long delayMs) {
+    public CompletableFuture<Void> publishToRetryQueue(EmailMessage message, long delayMs) {
         try {
-            String jsonMessage = objectMapper.writeValueAsString(message);
+            claimCheckStore.checkIn(message);
 
-            Message rabbitMessage = MessageBuilder.withBody(jsonMessage.getBytes())
-                .setContentType(MessageProperties.CONTENT_TYPE_JSON)
+            Message rabbitMessage = MessageBuilder.withBody(codec.encode(message))
+                .setContentType(codec.contentType())
+                .setContentEncoding(codec.contentEncoding())
                 .setExpiration(String.valueOf(delayMs))
                 .setHeader("event_id", message.getEventId())
                 .setHeader("retry_count", message.getRetryCount())
                 .build();
 
-            rabbitTemplate.send(retryExchange, retryRoutingKey, rabbitMessage);
+            CompletableFuture<Void> confirmed = publisher.publishLater(
+                retryExchange, retryRoutingKey, rabbitMessage, message.getEventId());
 
             log.info("Published email to retry queue: event={}, delay={}ms",
                 message.getEventId(), delayMs);
 
+            return confirmed;
+
         } catch (Exception e) {
             log.error("Failed to publish email to retry queue: {}", message.getEventId(), e);
+            return CompletableFuture.failedFuture(e);
         }
     }
 
     /**
      * Publish an email message to the dead letter queue.
      *
+     * Like {@link #publishToRetryQueue}, never waits for a confirm slot and
+     * returns the confirm for the caller to settle the original on.
+     *
      * @param message Email message that failed
      * @param errorMessage Error message
+     * @return Future completed when the broker confirms the DLQ copy
      */
-    public void publishToDeadLetterQueue(EmailMessage message, String errorMessage) {
+    public CompletableFuture<Void> publishToDeadLetterQueue(EmailMessage message, String errorMessage) {
         try {
             // Add error information to metadata
             message.getMetadata().put("failure_reason", errorMessage);
             message.getMetadata().put("failed_at", java.time.Instant.now().toString());
 
-            String jsonMessage = objectMapper.writeValueAsString(message);
+            claimCheckStore.checkIn(message);
 
-            Message rabbitMessage = MessageBuilder.withBody(jsonMessage.getBytes())
-                .setContentType(MessageProperties.CONTENT_TYPE_JSON)
+            Message rabbitMessage = MessageBuilder.withBody(codec.encode(message))
+                .setContentType(codec.contentType())
+                .setContentEncoding(codec.contentEncoding())
                 .setHeader("event_id", message.getEventId())
                 .setHeader("error", errorMessage)
                 .build();
 
-            rabbitTemplate.send("email.dlx", "email.dlq", rabbitMessage);
+            // Never waits for a confirm slot, so this is safe from confirm callbacks
+            CompletableFuture<Void> confirmed = publisher.publishLater(
+                "email.dlx", "email.dlq", rabbitMessage, message.getEventId());
 
             log.warn("Published email to DLQ: event={}, error={}",
                 message.getEventId(), errorMessage);
 
+            return confirmed;
+
         } catch (Exception e) {
             log.error("Failed to publish email to DLQ: {}", message.getEventId(), e);
+            return CompletableFuture.failedFuture(e);
         }
     }
 
@@ -0,0 +1,514 @@
+package ee.buerokratt.email.service;
+
+import ee.buerokratt.email.service.TemplateService.EmailTemplate;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Two-tier cache for email templates.
+ *
+ * L1 is an in-process Guava cache, L2 is the configured Spring cache
+ * ("emailTemplates", Redis by default) shared by all replicas. Misses on
+ * both tiers are loaded from Resql. Evictions are broadcast over Redis
+ * pub/sub so every replica drops its L1 copy.
+ *
+ * The full set of active templates can be bulk loaded in one Resql call,
+ * which is done at startup and on refresh.
+ *
+ * Lookups that find nothing are cached for a short time, and so is the
+ * result of falling back to another locale, per templateId and requested
+ * locale, so a repeated lookup is a single in-memory hit and a newly added
+ * locale shows up as soon as its miss expires.
+ */
+@Component
+public class TemplateCache implements MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateCache.class);
+    private static final String CACHE_NAME = "emailTemplates";
+    private static final String EVICT_ALL = "*";
+    private static final String RELOAD_ALL = "+";
+
+    private final RestTemplate restTemplate;
+    private final CacheManager cacheManager;
+    private final StringRedisTemplate redisTemplate;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final List<BiConsumer<String, String>> evictionListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<List<EmailTemplate>>> reloadListeners = new CopyOnWriteArrayList<>();
+
+    public TemplateCache(RestTemplate restTemplate, CacheManager cacheManager,
+                         StringRedisTemplate redisTemplate) {
+        this.restTemplate = restTemplate;
+        this.cacheManager = cacheManager;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Value("${resql.url:http://resql:8082}")
+    private String resqlUrl;
+
+    @Value("${email.template.cache.local-max-size:1000}")
+    private long localMaxSize;
+
+    @Value("${email.template.cache.local-ttl:300000}")
+    private long localTtlMs;
+
+    @Value("${email.template.cache.negative-ttl:30000}")
+    private long negativeTtlMs;
+
+    @Value("${email.template.cache.eviction-channel:email:template-evictions}")
+    private String evictionChannel;
+
+    @Value("${email.default-locale:et}")
+    private String defaultLocale;
+
+    private Cache<String, EmailTemplate> localCache;
+
+    /**
+     * Keys (templateId:locale) known not to exist, kept for a short TTL.
+     */
+    private Cache<String, Boolean> missCache;
+
+    /**
+     * Template found by falling back from the requested locale, keyed by
+     * templateId and requested locale. Kept only as long as the miss that
+     * caused the fallback.
+     */
+    private Cache<String, EmailTemplate> resolvedCache;
+
+    /**
+     * Fallback chain per requested locale, e.g. en-GB -> en -> et.
+     */
+    private final Map<String, List<String>> fallbackChains = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        localCache = CacheBuilder.newBuilder()
+            .maximumSize(localMaxSize)
+            .expireAfterWrite(localTtlMs, TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+        missCache = CacheBuilder.newBuilder()
+            .maximumSize(localMaxSize)
+            .expireAfterWrite(negativeTtlMs, TimeUnit.MILLISECONDS)
+            .build();
+        resolvedCache = CacheBuilder.newBuilder()
+            .maximumSize(localMaxSize)
+            .expireAfterWrite(negativeTtlMs, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    /**
+     * Resolve a template for the requested locale, falling back through
+     * the locale chain down to the default locale.
+     *
+     * @param templateId Template identifier
+     * @param locale Requested locale code
+     * @return Email template or null if no locale in the chain has one
+     */
+    public EmailTemplate resolve(String templateId, String locale) {
+        String requested = locale != null ? locale : defaultLocale;
+        String key = cacheKey(templateId, requested);
+
+        EmailTemplate template = resolvedCache.getIfPresent(key);
+        if (template != null) {
+            return template;
+        }
+
+        boolean failed = false;
+        for (String candidate : fallbackChain(requested)) {
+            Lookup lookup = lookup(templateId, candidate);
+            if (lookup.template() != null) {
+                // Direct hits are already in L1; a fallback found only because a
+                // closer locale failed to load must not stick
+                if (!candidate.equals(requested) && !failed) {
+                    resolvedCache.put(key, lookup.template());
+                }
+                return lookup.template();
+            }
+            failed |= lookup.failed();
+        }
+
+        return null;
+    }
+
+    /**
+     * Get a template, checking L1, then L2, then Resql.
+     *
+     * @param templateId Template identifier
+     * @param locale Locale code
+     * @return Email template or null if not found
+     */
+    public EmailTemplate get(String templateId, String locale) {
+        return lookup(templateId, locale).template();
+    }
+
+    /**
+     * Look up a template, telling a miss apart from a failed load.
+     */
+    private Lookup lookup(String templateId, String locale) {
+        String key = cacheKey(templateId, locale);
+
+        EmailTemplate template = localCache.getIfPresent(key);
+        if (template != null) {
+            return new Lookup(template, false);
+        }
+
+        if (missCache.getIfPresent(key) != null) {
+            return new Lookup(null, false);
+        }
+
+        org.springframework.cache.Cache remote = remoteCache();
+        if (remote != null) {
+            try {
+                template = remote.get(key, EmailTemplate.class);
+            } catch (RuntimeException e) {
+                log.warn("Failed to read template {} from shared cache: {}", key, e.getMessage());
+            }
+        }
+
+        if (template == null) {
+            try {
+                template = loadTemplate(templateId, locale);
+            } catch (Exception e) {
+                // Do not cache a miss when Resql itself failed
+                log.error("Failed to fetch template: {} (locale: {})", templateId, locale, e);
+                return new Lookup(null, true);
+            }
+
+            if (template == null) {
+                missCache.put(key, Boolean.TRUE);
+                return new Lookup(null, false);
+            }
+
+            if (remote != null) {
+                try {
+                    remote.put(key, template);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to write template {} to shared cache: {}", key, e.getMessage());
+                }
+            }
+        }
+
+        if (template != null) {
+            localCache.put(key, template);
+        }
+
+        return new Lookup(template, false);
+    }
+
+    /**
+     * Outcome of a single-locale lookup.
+     *
+     * @param template Template, or null if none was found
+     * @param failed True if the template could not be loaded, as opposed to not existing
+     */
+    private record Lookup(EmailTemplate template, boolean failed) {
+    }
+
+    /**
+     * Evict a template from both tiers on all replicas.
+     *
+     * @param templateId Template identifier
+     * @param locale Locale code
+     */
+    public void evict(String templateId, String locale) {
+        String key = cacheKey(templateId, locale);
+
+        org.springframework.cache.Cache remote = remoteCache();
+        if (remote != null) {
+            try {
+                remote.evict(key);
+            } catch (RuntimeException e) {
+                log.warn("Failed to evict template {} from shared cache: {}", key, e.getMessage());
+            }
+        }
+
+        evictLocal(templateId, locale);
+        broadcast(key);
+    }
+
+    /**
+     * Evict all templates from both tiers on all replicas.
+     */
+    public void evictAll() {
+        org.springframework.cache.Cache remote = remoteCache();
+        if (remote != null) {
+            try {
+                remote.clear();
+            } catch (RuntimeException e) {
+                log.warn("Failed to clear shared template cache: {}", e.getMessage());
+            }
+        }
+
+        evictAllLocal();
+        broadcast(EVICT_ALL);
+    }
+
+    /**
+     * Bulk load all active templates and replace both tiers with them.
+     *
+     * @return true if the templates were loaded
+     */
+    public boolean reload() {
+        return reload(true);
+    }
+
+    /**
+     * Bulk load all active templates on this replica and ask every other
+     * replica to do the same.
+     *
+     * @return true if the templates were loaded on this replica
+     */
+    public boolean reloadAll() {
+        boolean loaded = reload(true);
+        broadcast(RELOAD_ALL);
+        return loaded;
+    }
+
+    /**
+     * Bulk load all active templates into L1, and optionally L2. Cached
+     * templates whose version or content changed are evicted first.
+     *
+     * @param updateShared Whether to replace the shared cache as well
+     * @return true if the templates were loaded
+     */
+    private boolean reload(boolean updateShared) {
+        List<EmailTemplate> templates = loadAllTemplates();
+        if (templates == null) {
+            return false;
+        }
+
+        Map<String, EmailTemplate> loaded = new HashMap<>();
+        for (EmailTemplate template : templates) {
+            loaded.put(cacheKey(template.getId(), template.getLocale()), template);
+        }
+
+        // Drop templates that changed version or are no longer active
+        for (Map.Entry<String, EmailTemplate> entry : localCache.asMap().entrySet()) {
+            EmailTemplate current = loaded.get(entry.getKey());
+            if (current == null || !isSameVersion(current, entry.getValue())) {
+                evictLocal(entry.getValue().getId(), entry.getValue().getLocale());
+            }
+        }
+
+        localCache.putAll(loaded);
+        missCache.invalidateAll();
+        resolvedCache.invalidateAll();
+
+        org.springframework.cache.Cache remote = updateShared ? remoteCache() : null;
+        if (remote != null) {
+            try {
+                remote.clear();
+                loaded.forEach(remote::put);
+            } catch (RuntimeException e) {
+                log.warn("Failed to write templates to shared cache: {}", e.getMessage());
+            }
+        }
+
+        reloadListeners.forEach(listener -> listener.accept(templates));
+
+        log.info("Loaded {} active email templates", templates.size());
+        return true;
+    }
+
+    /**
+     * Register a callback invoked with the full template set after a bulk load.
+     *
+     * @param listener Callback receiving the loaded templates
+     */
+    public void addReloadListener(Consumer<List<EmailTemplate>> listener) {
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * Register a callback invoked whenever a template is evicted locally.
+     * A null templateId and locale means all templates were evicted.
+     *
+     * @param listener Callback receiving templateId and locale
+     */
+    public void addEvictionListener(BiConsumer<String, String> listener) {
+        evictionListeners.add(listener);
+    }
+
+    /**
+     * Handle eviction broadcast from another replica.
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = payload.indexOf('|');
+        if (separator < 0) {
+            return;
+        }
+
+        String sender = payload.substring(0, separator);
+        String key = payload.substring(separator + 1);
+        if (instanceId.equals(sender)) {
+            return;
+        }
+
+        log.debug("Received template eviction broadcast: {}", key);
+
+        if (EVICT_ALL.equals(key)) {
+            evictAllLocal();
+            return;
+        }
+
+        if (RELOAD_ALL.equals(key)) {
+            if (!reload(false)) {
+                evictAllLocal();
+            }
+            return;
+        }
+
+        int localeSeparator = key.lastIndexOf(':');
+        if (localeSeparator > 0) {
+            evictLocal(key.substring(0, localeSeparator), key.substring(localeSeparator + 1));
+        }
+    }
+
+    /**
+     * Fetch template from database via Resql.
+     *
+     * @param templateId Template identifier
+     * @param locale Locale code
+     * @return Email template or null if not found
+     */
+    private EmailTemplate loadTemplate(String templateId, String locale) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> response = restTemplate.postForObject(
+            resqlUrl + "/get-email-template",
+            Map.of(
+                "templateId", templateId,
+                "locale", locale
+            ),
+            Map.class
+        );
+
+        if (response != null && response.containsKey("body")) {
+            var records = (List<Map<String, Object>>) response.get("body");
+            if (!records.isEmpty()) {
+                return toTemplate(records.get(0));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Fetch all active templates from database via Resql in one call.
+     *
+     * @return Active templates or null if the call failed
+     */
+    private List<EmailTemplate> loadAllTemplates() {
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> response = restTemplate.postForObject(
+                resqlUrl + "/get-active-email-templates",
+                Map.of(),
+                Map.class
+            );
+
+            List<EmailTemplate> templates = new ArrayList<>();
+            if (response != null && response.containsKey("body")) {
+                var records = (List<Map<String, Object>>) response.get("body");
+                for (Map<String, Object> record : records) {
+                    templates.add(toTemplate(record));
+                }
+            }
+            return templates;
+
+        } catch (Exception e) {
+            log.error("Failed to fetch active templates", e);
+            return null;
+        }
+    }
+
+    private EmailTemplate toTemplate(Map<String, Object> record) {
+        return new EmailTemplate(
+            (String) record.get("id"),
+            (String) record.get("locale"),
+            (String) record.get("subject"),
+            (String) record.get("html_body"),
+            (String) record.get("text_body"),
+            (Integer) record.get("version")
+        );
+    }
+
+    private static boolean isSameVersion(EmailTemplate a, EmailTemplate b) {
+        return Objects.equals(a.getVersion(), b.getVersion())
+            && Objects.equals(a.getSubject(), b.getSubject())
+            && Objects.equals(a.getHtmlBody(), b.getHtmlBody())
+            && Objects.equals(a.getTextBody(), b.getTextBody());
+    }
+
+    private List<String> fallbackChain(String locale) {
+        return fallbackChains.computeIfAbsent(locale, requested -> {
+            Set<String> chain = new LinkedHashSet<>();
+            chain.add(requested);
+
+            int region = requested.indexOf('-') > 0 ? requested.indexOf('-') : requested.indexOf('_');
+            if (region > 0) {
+                chain.add(requested.substring(0, region));
+            }
+
+            chain.add(defaultLocale);
+            return List.copyOf(chain);
+        });
+    }
+
+    private void evictLocal(String templateId, String locale) {
+        String prefix = templateId + ':';
+        localCache.invalidate(cacheKey(templateId, locale));
+        missCache.invalidate(cacheKey(templateId, locale));
+        resolvedCache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        evictionListeners.forEach(listener -> listener.accept(templateId, locale));
+    }
+
+    private void evictAllLocal() {
+        localCache.invalidateAll();
+        missCache.invalidateAll();
+        resolvedCache.invalidateAll();
+        evictionListeners.forEach(listener -> listener.accept(null, null));
+    }
+
+    private void broadcast(String key) {
+        try {
+            redisTemplate.convertAndSend(evictionChannel, instanceId + '|' + key);
+        } catch (RuntimeException e) {
+            log.warn("Failed to broadcast template eviction {}: {}", key, e.getMessage());
+        }
+    }
+
+    private org.springframework.cache.Cache remoteCache() {
+        return cacheManager.getCache(CACHE_NAME);
+    }
+
+    private static String cacheKey(String templateId, String locale) {
+        return templateId + ':' + locale;
+    }
+}
@@ -3,16 +3,22 @@ package ee.buerokratt.email.service;
 import ee.buerokratt.email.model.EmailMessage;
 import com.github.jknack.handlebars.Handlebars;
 import com.github.jknack.handlebars.Template;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Service for rendering email templates.
@@ -26,18 +32,71 @@ public class TemplateService {
 
     private static final Logger log = LoggerFactory.getLogger(TemplateService.class);
     private final Handlebars handlebars;
-    private final RestTemplate restTemplate;
+    private final TemplateCache templateCache;
 
-    public TemplateService(Handlebars handlebars, RestTemplate restTemplate) {
+    public TemplateService(Handlebars handlebars, TemplateCache templateCache) {
         this.handlebars = handlebars;
-        this.restTemplate = restTemplate;
+        this.templateCache = templateCache;
     }
 
-    @Value("${resql.url:http://resql:8082}")
-    private String resqlUrl;
+    @Value("${email.template.compiled-cache.max-size:500}")
+    private long compiledCacheMaxSize;
 
-    @Value("${email.default-locale:et}")
-    private String defaultLocale;
+    @Value("${email.template.preload.enabled:true}")
+    private boolean preloadEnabled;
+
+    @Value("${email.template.preload.attempts:3}")
+    private int preloadAttempts;
+
+    @Value("${email.template.preload.backoff:2000}")
+    private long preloadBackoffMs;
+
+    /**
+     * Compiled templates keyed by templateId:locale:version, so a known
+     * template is only parsed once and rendering is just apply().
+     */
+    private Cache<String, CompiledTemplate> compiledTemplates;
+
+    @PostConstruct
+    public void init() {
+        compiledTemplates = CacheBuilder.newBuilder()
+            .maximumSize(compiledCacheMaxSize)
+            .recordStats()
+            .build();
+
+        templateCache.addEvictionListener(this::evictCompiled);
+        templateCache.addReloadListener(this::compileAll);
+    }
+
+    /**
+     * Preload and compile all active templates before the application
+     * reports readiness, so the first burst after a rollout is served
+     * from memory. Falls back to lazy loading if Resql is unavailable.
+     */
+    @EventListener(ApplicationStartedEvent.class)
+    public void preloadTemplates() {
+        if (!preloadEnabled) {
+            return;
+        }
+
+        for (int attempt = 1; attempt <= preloadAttempts; attempt++) {
+            if (templateCache.reload()) {
+                return;
+            }
+
+            log.warn("Template preload attempt {}/{} failed", attempt, preloadAttempts);
+            if (attempt < preloadAttempts) {
+                try {
+                    Thread.sleep(preloadBackoffMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        log.warn("Template preload failed, templates will be loaded on demand");
+    }
 
     /**
      * Render email template for the given message.
@@ -46,30 +105,27 @@ public class TemplateService {
      */
     public void renderTemplate(EmailMessage message) {
         try {
-            // Fetch template from database
-            EmailTemplate template = fetchTemplate(
+            // Resolve template through the locale fallback chain
+            EmailTemplate template = templateCache.resolve(
                 message.getTemplateId(),
                 message.getLocale()
             );
 
-            if (template == null) {
-                // Try default locale if specific locale not found
-                template = fetchTemplate(
-                    message.getTemplateId(),
-                    defaultLocale
-                );
-            }
-
             if (template == null) {
                 throw new IllegalArgumentException(
                     "Template not found: " + message.getTemplateId()
                 );
             }
 
+            CompiledTemplate compiled = getCompiledTemplate(template);
+            Map<String, Object> data = message.getTemplateData() != null
+                ? message.getTemplateData()
+                : new HashMap<>();
+
             // Set subject and body from template
-            message.setSubject(renderString(template.getSubject(), message.getTemplateData()));
-            message.setHtmlBody(renderString(template.getHtmlBody(), message.getTemplateData()));
-            message.setTextBody(renderString(template.getTextBody(), message.getTemplateData()));
+            message.setSubject(compiled.subject().render(data));
+            message.setHtmlBody(compiled.htmlBody().render(data));
+            message.setTextBody(compiled.textBody().render(data));
 
             log.debug("Rendered template: {} for event: {}",
                 message.getTemplateId(), message.getEventId());
@@ -81,69 +137,90 @@ public class TemplateService {
     }
 
     /**
-     * Fetch template from database via Resql.
+     * Check that a template exists for the given locale or one of its
+     * fallbacks, without rendering it.
+     *
+     * @param templateId Template identifier
+     * @param locale Locale code
+     * @throws IllegalArgumentException If no such template exists
+     */
+    public void requireTemplate(String templateId, String locale) {
+        if (templateCache.resolve(templateId, locale) == null) {
+            throw new IllegalArgumentException("Template not found: " + templateId);
+        }
+    }
+
+    /**
+     * Check whether a message still has to be rendered, i.e. it was queued
+     * with only a template reference and no bodies.
+     *
+     * @param message Email message
+     * @return True if the message has a template but no body
+     */
+    public boolean needsRendering(EmailMessage message) {
+        return message.getTemplateId() != null
+            && message.getHtmlBody() == null && message.getHtmlBodyRef() == null
+            && message.getTextBody() == null && message.getTextBodyRef() == null;
+    }
+
+    /**
+     * Fetch template through the two-tier template cache.
      *
      * @param templateId Template identifier
      * @param locale Locale code
      * @return Email template or null if not found
      */
-    @Cacheable(value = "emailTemplates", key = "#templateId + ':' + #locale")
     public EmailTemplate fetchTemplate(String templateId, String locale) {
-        try {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> response = restTemplate.postForObject(
-                resqlUrl + "/get-email-template",
-                Map.of(
-                    "templateId", templateId,
-                    "locale", locale
-                ),
-                Map.class
-            );
+        return templateCache.get(templateId, locale);
+    }
 
-            if (response != null && response.containsKey("body")) {
-                var records = (java.util.List<Map<String, Object>>) response.get("body");
-                if (!records.isEmpty()) {
-                    Map<String, Object> record = records.get(0);
-                    return new EmailTemplate(
-                        (String) record.get("id"),
-                        (String) record.get("locale"),
-                        (String) record.get("subject"),
-                        (String) record.get("html_body"),
-                        (String) record.get("text_body"),
-                        (Integer) record.get("version")
-                    );
-                }
-            }
+    /**
+     * Get the compiled form of a template, compiling it on first use.
+     *
+     * @param template Email template
+     * @return Compiled template
+     */
+    CompiledTemplate getCompiledTemplate(EmailTemplate template) throws ExecutionException {
+        return compiledTemplates.get(
+            compiledKey(template.getId(), template.getLocale(), template.getVersion()),
+            () -> compile(template)
+        );
+    }
 
-        } catch (Exception e) {
-            log.error("Failed to fetch template: {} (locale: {})", templateId, locale, e);
-        }
+    private CompiledTemplate compile(EmailTemplate template) {
+        log.debug("Compiling template: {} ({}) v{}",
+            template.getId(), template.getLocale(), template.getVersion());
 
-        return null;
+        return new CompiledTemplate(
+            compilePart(template.getSubject()),
+            compilePart(template.getHtmlBody()),
+            compilePart(template.getTextBody())
+        );
     }
 
     /**
-     * Render a Handlebars template string with given data.
+     * Compile a Handlebars template string.
      *
      * @param templateString Template string
-     * @param data Data for template variables
-     * @return Rendered string
+     * @return Compiled part, or the raw string if compilation fails
      */
-    private String renderString(String templateString, Map<String, Object> data) {
-        try {
-            if (templateString == null || templateString.isBlank()) {
-                return "";
-            }
-
-            Template template = handlebars.compileInline(templateString);
-            return template.apply(data != null ? data : new HashMap<>());
+    private CompiledPart compilePart(String templateString) {
+        if (templateString == null || templateString.isBlank()) {
+            return new CompiledPart(null, "");
+        }
 
+        try {
+            return new CompiledPart(handlebars.compileInline(templateString), templateString);
         } catch (IOException e) {
-            log.error("Failed to render template string", e);
-            return templateString; // Return original if rendering fails
+            log.error("Failed to compile template string", e);
+            return new CompiledPart(null, templateString); // Render original if compilation fails
         }
     }
 
+    private static String compiledKey(String templateId, String locale, Integer version) {
+        return templateId + ':' + locale + ':' + (version != null ? version : 0);
+    }
+
     /**
      * Evict template from cache.
      *
@@ -153,12 +230,69 @@ public class TemplateService {
     public void evictTemplate(String templateId, String locale) {
         // This would be called when templates are updated
         log.info("Evicting template from cache: {} ({})", templateId, locale);
+        templateCache.evict(templateId, locale);
+    }
+
+    /**
+     * Reload all active templates on every replica.
+     */
+    public void refreshTemplates() {
+        log.info("Refreshing email template cache");
+        if (!templateCache.reloadAll()) {
+            throw new IllegalStateException("Failed to load active templates");
+        }
+    }
+
+    private void compileAll(List<EmailTemplate> templates) {
+        for (EmailTemplate template : templates) {
+            try {
+                getCompiledTemplate(template);
+            } catch (Exception e) {
+                log.error("Failed to compile template: {} ({})", template.getId(), template.getLocale(), e);
+            }
+        }
+    }
+
+    private void evictCompiled(String templateId, String locale) {
+        if (templateId == null) {
+            compiledTemplates.invalidateAll();
+            return;
+        }
+
+        String prefix = templateId + ':' + locale + ':';
+        compiledTemplates.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * Compiled subject, HTML and text parts of a template version.
+     */
+    record CompiledTemplate(CompiledPart subject, CompiledPart htmlBody, CompiledPart textBody) {}
+
+    /**
+     * A single compiled template part. Falls back to the raw source
+     * when the part is empty or could not be compiled.
+     */
+    record CompiledPart(Template template, String source) {
+
+        String render(Map<String, Object> data) {
+            if (template == null) {
+                return source;
+            }
+            try {
+                return template.apply(data);
+            } catch (IOException e) {
+                log.error("Failed to render template string", e);
+                return source; // Return original if rendering fails
+            }
+        }
     }
 
     /**
      * Internal model for email template.
      */
-    public static class EmailTemplate {
+    public static class EmailTemplate implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         private String id;
         private String locale;
         private String subject;
@@ -0,0 +1,39 @@
+package ee.buerokratt.email.service.idempotency;
+
+import java.util.List;
+
+/**
+ * Store of recently seen event IDs used to reject duplicate requests.
+ */
+public interface IdempotencyStore {
+
+    /**
+     * Atomically record an event ID if it has not been seen within the window.
+     *
+     * @param eventId Event identifier
+     * @return true if the event is new, false if it is a duplicate
+     */
+    boolean tryAcquire(String eventId);
+
+    /**
+     * Claim several event IDs at once.
+     *
+     * @param eventIds Event identifiers
+     * @return For each event ID, true if it is new
+     */
+    default boolean[] tryAcquireAll(List<String> eventIds) {
+        boolean[] acquired = new boolean[eventIds.size()];
+        for (int i = 0; i < eventIds.size(); i++) {
+            acquired[i] = tryAcquire(eventIds.get(i));
+        }
+        return acquired;
+    }
+
+    /**
+     * Forget an event ID, e.g. when processing failed and the client
+     * should be allowed to retry.
+     *
+     * @param eventId Event identifier
+     */
+    void release(String eventId);
+}
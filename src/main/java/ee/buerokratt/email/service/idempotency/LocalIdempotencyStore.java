@@ -0,0 +1,356 @@
+package ee.buerokratt.email.service.idempotency;
+
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process idempotency store with a fixed memory footprint.
+ *
+ * Event IDs are packed into two longs (UUIDs directly, other IDs via a
+ * 128-bit murmur3 hash) and kept in open-addressing tables with linear
+ * probing. The window is split into time-bucketed generations: entries
+ * are inserted into the current generation and a whole generation is
+ * dropped once it falls out of the window, so expiry never scans entries.
+ *
+ * Each table is allocated (optionally off-heap) the first time its stripe
+ * needs it and reused from then on, so memory grows with traffic up to a
+ * cap of roughly 21 bytes per entry. When the current generation is full,
+ * the oldest generation is evicted early and counted as an eviction.
+ *
+ * The key space is split into stripes, each with its own lock and
+ * generations, so concurrent requests rarely contend.
+ */
+public class LocalIdempotencyStore implements IdempotencyStore {
+
+    private static final int STRIPES = 64;
+    private static final double LOAD_FACTOR = 0.75;
+    private static final long[] ZEROS = new long[1024];
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long generationMillis;
+    private final int tableCount;
+    private final int slotsPerTable;
+    private final int maxEntriesPerTable;
+    private final boolean offHeap;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param windowMs Deduplication window in milliseconds
+     * @param generations Number of time buckets the window is split into
+     * @param maxEntries Maximum number of event IDs kept
+     * @param offHeap Allocate tables in direct memory instead of the heap
+     */
+    public LocalIdempotencyStore(long windowMs, int generations, long maxEntries, boolean offHeap) {
+        if (windowMs <= 0 || generations < 1 || maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid idempotency store configuration");
+        }
+
+        // One extra table so the full window stays live while the next bucket fills
+        this.generationMillis = Math.max(1, windowMs / generations);
+        this.tableCount = generations + 1;
+        this.maxEntriesPerTable = (int) Math.max(1, maxEntries / ((long) STRIPES * tableCount));
+        this.slotsPerTable = (int) Math.ceil(maxEntriesPerTable / LOAD_FACTOR) + 1;
+        this.offHeap = offHeap;
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Register hit, miss and eviction metrics.
+     *
+     * @param registry Meter registry
+     * @param applicationName Application name tag
+     */
+    public void bindTo(MeterRegistry registry, String applicationName) {
+        FunctionCounter.builder("email_idempotency_hits_total", hits, LongAdder::sum)
+            .description("Requests rejected as duplicates")
+            .tag("application", applicationName)
+            .register(registry);
+
+        FunctionCounter.builder("email_idempotency_misses_total", misses, LongAdder::sum)
+            .description("Requests accepted as new events")
+            .tag("application", applicationName)
+            .register(registry);
+
+        FunctionCounter.builder("email_idempotency_evictions_total", evictions, LongAdder::sum)
+            .description("Event IDs evicted before the end of the window because the store was full")
+            .tag("application", applicationName)
+            .register(registry);
+
+        Gauge.builder("email_idempotency_entries", this, LocalIdempotencyStore::size)
+            .description("Event IDs currently tracked")
+            .tag("application", applicationName)
+            .register(registry);
+
+        Gauge.builder("email_idempotency_memory_bytes", this, store -> store.memoryBytes())
+            .description("Memory reserved for idempotency tables")
+            .tag("application", applicationName)
+            .register(registry);
+    }
+
+    @Override
+    public boolean tryAcquire(String eventId) {
+        Key key = Key.of(eventId);
+        boolean acquired = stripeFor(key.hash()).tryAcquire(key, currentEpoch());
+        if (acquired) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return acquired;
+    }
+
+    @Override
+    public void release(String eventId) {
+        Key key = Key.of(eventId);
+        stripeFor(key.hash()).remove(key, currentEpoch());
+    }
+
+    /**
+     * @return Number of event IDs currently tracked
+     */
+    public long size() {
+        long size = 0;
+        long epoch = currentEpoch();
+        for (Stripe stripe : stripes) {
+            size += stripe.size(epoch);
+        }
+        return size;
+    }
+
+    /**
+     * @return Bytes reserved for all tables
+     */
+    public long memoryBytes() {
+        return (long) STRIPES * tableCount * slotsPerTable * 2 * Long.BYTES;
+    }
+
+    private long currentEpoch() {
+        return System.currentTimeMillis() / generationMillis;
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) (hash >>> 58)];
+    }
+
+    private int homeSlot(long hash) {
+        return (int) Math.floorMod(hash, (long) slotsPerTable);
+    }
+
+    private LongBuffer allocateTable() {
+        int longs = slotsPerTable * 2;
+        return offHeap
+            ? ByteBuffer.allocateDirect(longs * Long.BYTES).asLongBuffer()
+            : LongBuffer.allocate(longs);
+    }
+
+    private static long mix(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Event ID packed into two longs. (0, 0) is reserved for empty slots.
+     */
+    private record Key(long msb, long lsb, long hash) {
+
+        static Key of(String eventId) {
+            long msb;
+            long lsb;
+
+            UUID uuid = parseUuid(eventId);
+            if (uuid != null) {
+                msb = uuid.getMostSignificantBits();
+                lsb = uuid.getLeastSignificantBits();
+            } else {
+                ByteBuffer hash = ByteBuffer.wrap(
+                    Hashing.murmur3_128().hashString(eventId, StandardCharsets.UTF_8).asBytes()
+                );
+                msb = hash.getLong(0);
+                lsb = hash.getLong(Long.BYTES);
+            }
+
+            if (msb == 0 && lsb == 0) {
+                lsb = 1;
+            }
+            return new Key(msb, lsb, mix(msb, lsb));
+        }
+
+        private static UUID parseUuid(String eventId) {
+            if (eventId.length() != 36) {
+                return null;
+            }
+            try {
+                return UUID.fromString(eventId);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * One lock-protected slice of the key space with its own generations.
+     */
+    private final class Stripe {
+
+        private final LongBuffer[] tables = new LongBuffer[tableCount];
+        private final long[] epochs = new long[tableCount];
+        private final int[] sizes = new int[tableCount];
+
+        Stripe() {
+            for (int i = 0; i < tableCount; i++) {
+                epochs[i] = Long.MIN_VALUE;
+            }
+        }
+
+        synchronized boolean tryAcquire(Key key, long epoch) {
+            for (int i = 0; i < tableCount; i++) {
+                if (isLive(i, epoch) && indexOf(tables[i], key) >= 0) {
+                    return false;
+                }
+            }
+
+            int target = writableTable(epoch);
+            insert(tables[target], key);
+            sizes[target]++;
+            return true;
+        }
+
+        synchronized void remove(Key key, long epoch) {
+            for (int i = 0; i < tableCount; i++) {
+                if (!isLive(i, epoch)) {
+                    continue;
+                }
+                int slot = indexOf(tables[i], key);
+                if (slot >= 0) {
+                    delete(tables[i], slot);
+                    sizes[i]--;
+                    return;
+                }
+            }
+        }
+
+        synchronized long size(long epoch) {
+            long size = 0;
+            for (int i = 0; i < tableCount; i++) {
+                if (isLive(i, epoch)) {
+                    size += sizes[i];
+                }
+            }
+            return size;
+        }
+
+        private boolean isLive(int table, long epoch) {
+            return tables[table] != null && epochs[table] > epoch - tableCount;
+        }
+
+        /**
+         * Find a table for the current epoch with room left, recycling the
+         * oldest table if there is none.
+         */
+        private int writableTable(long epoch) {
+            int oldest = 0;
+            for (int i = 0; i < tableCount; i++) {
+                if (tables[i] != null && epochs[i] == epoch && sizes[i] < maxEntriesPerTable) {
+                    return i;
+                }
+                if (epochs[i] < epochs[oldest]) {
+                    oldest = i;
+                }
+            }
+
+            if (tables[oldest] == null) {
+                tables[oldest] = allocateTable();
+            } else {
+                if (isLive(oldest, epoch)) {
+                    evictions.add(sizes[oldest]);
+                }
+                clear(tables[oldest]);
+            }
+
+            epochs[oldest] = epoch;
+            sizes[oldest] = 0;
+            return oldest;
+        }
+
+        private int indexOf(LongBuffer table, Key key) {
+            int slot = homeSlot(key.hash());
+            for (int probes = 0; probes < slotsPerTable; probes++) {
+                long storedMsb = table.get(slot * 2);
+                long storedLsb = table.get(slot * 2 + 1);
+                if (storedMsb == 0 && storedLsb == 0) {
+                    return -1;
+                }
+                if (storedMsb == key.msb() && storedLsb == key.lsb()) {
+                    return slot;
+                }
+                slot = slot + 1 == slotsPerTable ? 0 : slot + 1;
+            }
+            return -1;
+        }
+
+        private void insert(LongBuffer table, Key key) {
+            int slot = homeSlot(key.hash());
+            while (table.get(slot * 2) != 0 || table.get(slot * 2 + 1) != 0) {
+                slot = slot + 1 == slotsPerTable ? 0 : slot + 1;
+            }
+            table.put(slot * 2, key.msb());
+            table.put(slot * 2 + 1, key.lsb());
+        }
+
+        /**
+         * Backward-shift deletion, keeping probe sequences intact without tombstones.
+         */
+        private void delete(LongBuffer table, int slot) {
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = next + 1 == slotsPerTable ? 0 : next + 1;
+                long msb = table.get(next * 2);
+                long lsb = table.get(next * 2 + 1);
+                if (msb == 0 && lsb == 0) {
+                    break;
+                }
+
+                int home = homeSlot(mix(msb, lsb));
+                boolean inPlace = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+                if (inPlace) {
+                    continue;
+                }
+
+                table.put(hole * 2, msb);
+                table.put(hole * 2 + 1, lsb);
+                hole = next;
+            }
+            table.put(hole * 2, 0L);
+            table.put(hole * 2 + 1, 0L);
+        }
+
+        private void clear(LongBuffer table) {
+            int length = table.capacity();
+            for (int offset = 0; offset < length; offset += ZEROS.length) {
+                table.put(offset, ZEROS, 0, Math.min(ZEROS.length, length - offset));
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package ee.buerokratt.email.service.idempotency;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cluster-wide idempotency store backed by Redis.
+ *
+ * Each event ID is claimed with an atomic SET NX PX, so a retried request
+ * is rejected whichever replica it lands on. A local store sits in front:
+ * duplicates this replica has already claimed are rejected without a
+ * network round trip, and only IDs that are new locally go to Redis.
+ * Batches claim all their IDs in a single pipelined call.
+ *
+ * If Redis is unavailable the local answer is used, so deduplication
+ * degrades to per-replica rather than failing requests.
+ */
+public class RedisIdempotencyStore implements IdempotencyStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisIdempotencyStore.class);
+    private static final byte[] CLAIMED = "1".getBytes(StandardCharsets.UTF_8);
+
+    private final StringRedisTemplate redisTemplate;
+    private final IdempotencyStore localStore;
+    private final String keyPrefix;
+    private final Duration window;
+
+    private final LongAdder remoteHits = new LongAdder();
+    private final LongAdder remoteErrors = new LongAdder();
+
+    /**
+     * @param redisTemplate Redis template
+     * @param localStore Local store consulted before Redis
+     * @param keyPrefix Redis key prefix
+     * @param window Deduplication window
+     */
+    public RedisIdempotencyStore(StringRedisTemplate redisTemplate, IdempotencyStore localStore,
+                                 String keyPrefix, Duration window) {
+        this.redisTemplate = redisTemplate;
+        this.localStore = localStore;
+        this.keyPrefix = keyPrefix;
+        this.window = window;
+    }
+
+    /**
+     * Register remote hit and error metrics.
+     *
+     * @param registry Meter registry
+     * @param applicationName Application name tag
+     */
+    public void bindTo(MeterRegistry registry, String applicationName) {
+        FunctionCounter.builder("email_idempotency_remote_hits_total", remoteHits, LongAdder::sum)
+            .description("Duplicates detected in Redis that were not known locally")
+            .tag("application", applicationName)
+            .register(registry);
+
+        FunctionCounter.builder("email_idempotency_remote_errors_total", remoteErrors, LongAdder::sum)
+            .description("Redis idempotency checks that failed and fell back to the local store")
+            .tag("application", applicationName)
+            .register(registry);
+    }
+
+    @Override
+    public boolean tryAcquire(String eventId) {
+        if (!localStore.tryAcquire(eventId)) {
+            return false;
+        }
+
+        try {
+            Boolean acquired = redisTemplate.opsForValue()
+                .setIfAbsent(keyPrefix + eventId, "1", window);
+            if (Boolean.TRUE.equals(acquired)) {
+                return true;
+            }
+
+            // Claimed by another replica; let Redis stay the source of truth for it
+            localStore.release(eventId);
+            remoteHits.increment();
+            return false;
+        } catch (RuntimeException e) {
+            remoteErrors.increment();
+            log.warn("Redis idempotency check failed for {}, using local result: {}", eventId, e.getMessage());
+            return true;
+        }
+    }
+
+    @Override
+    public boolean[] tryAcquireAll(List<String> eventIds) {
+        boolean[] acquired = new boolean[eventIds.size()];
+        List<Integer> remoteIndexes = new ArrayList<>();
+
+        for (int i = 0; i < eventIds.size(); i++) {
+            acquired[i] = localStore.tryAcquire(eventIds.get(i));
+            if (acquired[i]) {
+                remoteIndexes.add(i);
+            }
+        }
+
+        if (remoteIndexes.isEmpty()) {
+            return acquired;
+        }
+
+        try {
+            Expiration expiration = Expiration.from(window);
+            List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int index : remoteIndexes) {
+                    byte[] key = (keyPrefix + eventIds.get(index)).getBytes(StandardCharsets.UTF_8);
+                    connection.stringCommands().set(
+                        key, CLAIMED, expiration, RedisStringCommands.SetOption.SET_IF_ABSENT
+                    );
+                }
+                return null;
+            });
+
+            for (int i = 0; i < remoteIndexes.size(); i++) {
+                if (!Boolean.TRUE.equals(replies.get(i))) {
+                    int index = remoteIndexes.get(i);
+                    acquired[index] = false;
+                    localStore.release(eventIds.get(index));
+                    remoteHits.increment();
+                }
+            }
+        } catch (RuntimeException e) {
+            remoteErrors.increment();
+            log.warn("Redis idempotency batch check failed, using local results: {}", e.getMessage());
+        }
+
+        return acquired;
+    }
+
+    @Override
+    public void release(String eventId) {
+        localStore.release(eventId);
+        try {
+            redisTemplate.delete(keyPrefix + eventId);
+        } catch (RuntimeException e) {
+            remoteErrors.increment();
+            log.warn("Failed to release idempotency key {} in Redis: {}", eventId, e.getMessage());
+        }
+    }
+}
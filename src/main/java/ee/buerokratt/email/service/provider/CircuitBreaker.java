@@ -0,0 +1,279 @@
+package ee.buerokratt.email.service.provider;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Circuit breaker for calls to an email provider.
+ *
+ * While closed, the outcomes of the last window-size calls are kept. Once
+ * enough calls have been seen, the circuit opens when the share of failed
+ * calls or of calls slower than the slow-call threshold reaches its limit.
+ * While open every call is rejected. After the open duration the circuit
+ * goes half-open and lets a fixed number of probe calls through: if they
+ * all succeed it closes, if any fails it opens again.
+ *
+ * Each call takes a permit tied to the current state, so results of calls
+ * started before a state change are ignored. State listeners are notified
+ * on the breaker's own thread, never on the calling thread.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * Circuit states. The ordinal is exported as the state metric.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Breaker thresholds and timings.
+     *
+     * @param windowSize Calls kept for the failure and slow-call rates
+     * @param minimumCalls Calls needed before the circuit can open
+     * @param failureRateThreshold Percentage of failed calls that opens the circuit
+     * @param slowCallMs Duration from which a call counts as slow
+     * @param slowCallRateThreshold Percentage of slow calls that opens the circuit
+     * @param openDurationMs Time the circuit stays open before probing
+     * @param probes Calls let through while half-open
+     */
+    public record Settings(int windowSize, int minimumCalls, double failureRateThreshold, long slowCallMs,
+                           double slowCallRateThreshold, long openDurationMs, int probes) {
+    }
+
+    private final String name;
+    private final Settings settings;
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int calls;
+    private int next;
+    private int failures;
+    private int slow;
+    private int probesIssued;
+    private int probesSucceeded;
+
+    private Counter rejectedCounter;
+    private MeterRegistry registry;
+    private String applicationName;
+
+    public CircuitBreaker(String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.failedCalls = new boolean[settings.windowSize()];
+        this.slowCalls = new boolean[settings.windowSize()];
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "circuit-breaker-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Register circuit metrics.
+     *
+     * @param registry Meter registry
+     * @param applicationName Application name tag
+     */
+    public void bindTo(MeterRegistry registry, String applicationName) {
+        this.registry = registry;
+        this.applicationName = applicationName;
+
+        Gauge.builder("email_provider_circuit_state", this, breaker -> breaker.getState().ordinal())
+            .description("Provider circuit state: 0 closed, 1 open, 2 half-open")
+            .tag("application", applicationName)
+            .tag("circuit", name)
+            .register(registry);
+
+        rejectedCounter = Counter.builder("email_provider_circuit_rejected_total")
+            .description("Sends rejected because the provider circuit was open")
+            .tag("application", applicationName)
+            .tag("circuit", name)
+            .register(registry);
+    }
+
+    /**
+     * Be notified of state changes.
+     *
+     * @param listener Called with the new state on the breaker's thread
+     */
+    public void addListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Ask to make a call.
+     *
+     * @return Permit to pass to {@link #record} or {@link #cancel}, or -1
+     *         if the call is not allowed
+     */
+    public synchronized long tryAcquire() {
+        boolean allowed = switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> probesIssued < settings.probes();
+        };
+
+        if (!allowed) {
+            if (rejectedCounter != null) {
+                rejectedCounter.increment();
+            }
+            return -1;
+        }
+
+        if (state == State.HALF_OPEN) {
+            probesIssued++;
+        }
+        return generation;
+    }
+
+    /**
+     * Record the outcome of a permitted call.
+     *
+     * @param permit Permit from {@link #tryAcquire()}
+     * @param durationMs Call duration
+     * @param failed True if the call failed
+     */
+    public synchronized void record(long permit, long durationMs, boolean failed) {
+        if (permit != generation) {
+            return;
+        }
+
+        boolean isSlow = durationMs >= settings.slowCallMs();
+        if (state == State.HALF_OPEN) {
+            if (failed || isSlow) {
+                transition(State.OPEN);
+            } else if (++probesSucceeded >= settings.probes()) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+
+        if (state != State.CLOSED) {
+            return;
+        }
+
+        if (calls == failedCalls.length) {
+            failures -= failedCalls[next] ? 1 : 0;
+            slow -= slowCalls[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        failedCalls[next] = failed;
+        slowCalls[next] = isSlow;
+        failures += failed ? 1 : 0;
+        slow += isSlow ? 1 : 0;
+        next = (next + 1) % failedCalls.length;
+
+        if (calls >= settings.minimumCalls()
+            && (failureRate() >= settings.failureRateThreshold() || slowCallRate() >= settings.slowCallRateThreshold())) {
+            log.warn("Opening circuit {}: failure rate {}%, slow call rate {}% over {} calls",
+                name, Math.round(failureRate()), Math.round(slowCallRate()), calls);
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Give back a permit for a call that never reached the provider, so
+     * it does not use up a half-open probe.
+     *
+     * @param permit Permit from {@link #tryAcquire()}
+     */
+    public synchronized void cancel(long permit) {
+        if (permit == generation && state == State.HALF_OPEN && probesIssued > 0) {
+            probesIssued--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return Percentage of failed calls in the current window
+     */
+    public synchronized double failureRate() {
+        return calls == 0 ? 0 : failures * 100.0 / calls;
+    }
+
+    /**
+     * @return Percentage of slow calls in the current window
+     */
+    public synchronized double slowCallRate() {
+        return calls == 0 ? 0 : slow * 100.0 / calls;
+    }
+
+    /**
+     * @return Time until the circuit probes again, or the open duration if it is not open
+     */
+    public synchronized long retryAfterMs() {
+        if (state != State.OPEN) {
+            return settings.openDurationMs();
+        }
+        return Math.max(0, openedAt + settings.openDurationMs() - System.currentTimeMillis());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Stop the half-open timer.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    private void transition(State target) {
+        State previous = state;
+        state = target;
+        generation++;
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slow = 0;
+        probesIssued = 0;
+        probesSucceeded = 0;
+
+        if (target == State.OPEN) {
+            openedAt = System.currentTimeMillis();
+            long openGeneration = generation;
+            scheduler.schedule(() -> {
+                synchronized (this) {
+                    if (generation == openGeneration) {
+                        transition(State.HALF_OPEN);
+                    }
+                }
+            }, settings.openDurationMs(), TimeUnit.MILLISECONDS);
+        }
+
+        log.info("Circuit {} changed from {} to {}", name, previous, target);
+        if (registry != null) {
+            registry.counter("email_provider_circuit_transitions_total",
+                "application", applicationName, "circuit", name, "state", target.name().toLowerCase()).increment();
+        }
+
+        for (Consumer<State> listener : listeners) {
+            scheduler.execute(() -> listener.accept(target));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ee.buerokratt.email.service.provider;
+
+import ee.buerokratt.email.model.EmailMessage;
+import ee.buerokratt.email.model.EmailResult;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provider wrapper that stops calling the provider while its circuit is
+ * open.
+ *
+ * Rejected sends fail fast with {@link CircuitOpenException} instead of
+ * waiting out connection timeouts. Rejections by address or content and
+ * sends deferred before reaching the provider do not count as failures,
+ * and time spent waiting for rate limit tokens does not count towards
+ * slow calls.
+ */
+public class CircuitBreakerEmailProvider extends ForwardingEmailProvider {
+
+    private final CircuitBreaker breaker;
+
+    public CircuitBreakerEmailProvider(EmailProvider delegate, CircuitBreaker breaker) {
+        super(delegate);
+        this.breaker = breaker;
+    }
+
+    @Override
+    public EmailResult send(EmailMessage message) throws EmailException {
+        long permit = breaker.tryAcquire();
+        if (permit < 0) {
+            throw circuitOpen();
+        }
+
+        SendStopwatch stopwatch = SendStopwatch.start();
+        try {
+            EmailResult result = delegate.send(message);
+            complete(permit, result, stopwatch.elapsedMs());
+            return result;
+        } catch (SendDeferredException e) {
+            breaker.cancel(permit);
+            throw e;
+        } catch (EmailException | RuntimeException e) {
+            breaker.record(permit, stopwatch.elapsedMs(), isFailure(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Send the group through the provider while the circuit is closed,
+     * recording each message's outcome. While half-open, messages go one
+     * by one so only the allowed number of probes reaches the provider.
+     */
+    @Override
+    public List<EmailResult> sendAll(List<EmailMessage> messages) {
+        if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+            return sendEach(messages);
+        }
+
+        long permit = breaker.tryAcquire();
+        if (permit < 0) {
+            return sendEach(messages);
+        }
+
+        List<EmailResult> results = delegate.sendAll(messages);
+        for (EmailResult result : results) {
+            complete(permit, result, result.getDuration() != null ? result.getDuration() : 0);
+        }
+        return results;
+    }
+
+    /**
+     * @return Circuit breaker guarding the provider
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    private List<EmailResult> sendEach(List<EmailMessage> messages) {
+        List<EmailResult> results = new ArrayList<>(messages.size());
+        for (EmailMessage message : messages) {
+            SendStopwatch stopwatch = SendStopwatch.start();
+            try {
+                results.add(send(message));
+            } catch (Exception e) {
+                results.add(EmailResult.builder()
+                    .success(false)
+                    .provider(getProviderName())
+                    .error(e.getMessage())
+                    .exception(e)
+                    .timestamp(Instant.now())
+                    .duration(stopwatch.elapsedMs())
+                    .build());
+            }
+        }
+        return results;
+    }
+
+    private void complete(long permit, EmailResult result, long durationMs) {
+        if (result.getException() instanceof SendDeferredException) {
+            breaker.cancel(permit);
+        } else {
+            breaker.record(permit, durationMs, !result.isSuccess() && isFailure(result.getException()));
+        }
+    }
+
+    /**
+     * @return True if the failure says something about the provider rather than the message
+     */
+    private boolean isFailure(Throwable e) {
+        if (e instanceof EmailException emailException) {
+            return !emailException.isRejection() && emailException.isRetryable();
+        }
+        return true;
+    }
+
+    private CircuitOpenException circuitOpen() {
+        return new CircuitOpenException("Circuit open for " + getProviderName(),
+            getProviderName(), breaker.retryAfterMs());
+    }
+}
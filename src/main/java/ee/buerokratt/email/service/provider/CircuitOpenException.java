@@ -0,0 +1,11 @@
+package ee.buerokratt.email.service.provider;
+
+/**
+ * Thrown when a send is rejected because the provider circuit is open.
+ */
+public class CircuitOpenException extends SendDeferredException {
+
+    public CircuitOpenException(String message, String provider, long retryAfterMs) {
+        super(message, provider, "503", retryAfterMs);
+    }
+}
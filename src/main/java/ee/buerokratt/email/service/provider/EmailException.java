@@ -5,6 +5,17 @@ package ee.buerokratt.email.service.provider;
  */
 public class EmailException extends Exception {
 
+    /**
+     * Error code for a recipient address that is malformed or that the
+     * provider refused permanently.
+     */
+    public static final String RECIPIENT_REJECTED = "recipient_rejected";
+
+    /**
+     * Error code for a message that the provider refused permanently.
+     */
+    public static final String MESSAGE_REJECTED = "message_rejected";
+
     private final String provider;
     private final String errorCode;
 
@@ -32,6 +43,12 @@ public class EmailException extends Exception {
         this.errorCode = null;
     }
 
+    public EmailException(String message, Throwable cause, String provider, String errorCode) {
+        super(message, cause);
+        this.provider = provider;
+        this.errorCode = errorCode;
+    }
+
     public String getProvider() {
         return provider;
     }
@@ -47,6 +64,14 @@ public class EmailException extends Exception {
         }
 
         // Common non-retryable error codes
-        return !errorCode.matches("^(400|401|403|404)$");
+        return !isRejection() && !errorCode.matches("^(400|401|403|404)$");
+    }
+
+    /**
+     * @return True if the provider refused the message or its recipient
+     *         permanently, which says nothing about the provider's health
+     */
+    public boolean isRejection() {
+        return RECIPIENT_REJECTED.equals(errorCode) || MESSAGE_REJECTED.equals(errorCode);
     }
 }
@@ -3,6 +3,10 @@ package ee.buerokratt.email.service.provider;
 import ee.buerokratt.email.model.EmailMessage;
 import ee.buerokratt.email.model.EmailResult;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Interface for email provider implementations.
  *
@@ -22,6 +26,41 @@ public interface EmailProvider {
      */
     EmailResult send(EmailMessage message) throws EmailException;
 
+    /**
+     * Send several email messages.
+     *
+     * Providers that can reuse a connection or submit a group in one call
+     * override this. The default sends one message at a time. A message
+     * that throws gets a failed result carrying the exception, so one bad
+     * message does not fail the rest.
+     *
+     * @param messages Email messages to send
+     * @return One result per message, in the same order
+     */
+    default List<EmailResult> sendAll(List<EmailMessage> messages) {
+        List<EmailResult> results = new ArrayList<>(messages.size());
+        for (EmailMessage message : messages) {
+            long startTime = System.currentTimeMillis();
+            EmailResult result;
+            try {
+                result = send(message);
+            } catch (Exception e) {
+                result = EmailResult.builder()
+                    .success(false)
+                    .provider(getProviderName())
+                    .error(e.getMessage())
+                    .exception(e)
+                    .timestamp(Instant.now())
+                    .build();
+            }
+            if (result.getDuration() == null) {
+                result.setDuration(System.currentTimeMillis() - startTime);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
     /**
      * Get provider name.
      *
@@ -0,0 +1,58 @@
+package ee.buerokratt.email.service.provider;
+
+import ee.buerokratt.email.model.EmailMessage;
+import ee.buerokratt.email.model.EmailResult;
+
+import java.util.List;
+
+/**
+ * Base class for providers that wrap another provider to add behaviour
+ * such as throttling, and otherwise pass every call through unchanged.
+ */
+public abstract class ForwardingEmailProvider implements EmailProvider {
+
+    protected final EmailProvider delegate;
+
+    protected ForwardingEmailProvider(EmailProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public EmailResult send(EmailMessage message) throws EmailException {
+        return delegate.send(message);
+    }
+
+    @Override
+    public List<EmailResult> sendAll(List<EmailMessage> messages) {
+        return delegate.sendAll(messages);
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return delegate.isHealthy();
+    }
+
+    /**
+     * Release resources held by this wrapper and the wrappers inside it.
+     * The innermost provider is shut down by its own bean.
+     */
+    public void shutdown() {
+        if (delegate instanceof ForwardingEmailProvider forwarding) {
+            forwarding.shutdown();
+        } else if (delegate instanceof RoutingEmailProvider router) {
+            router.shutdown();
+        }
+    }
+
+    /**
+     * @return Wrapped provider
+     */
+    public EmailProvider getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,168 @@
+package ee.buerokratt.email.service.provider;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Provider;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.URLName;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSenderFailedException;
+import org.eclipse.angus.mail.smtp.SMTPTransport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SMTP transport that pipelines the envelope commands (RFC 2920).
+ *
+ * When the server advertises PIPELINING, MAIL FROM and every RCPT TO are
+ * written back to back and their replies read afterwards, so a message
+ * costs one round trip for the envelope instead of one per command. DATA
+ * and the message body then go out as usual. Servers without PIPELINING,
+ * and messages that are not MIME messages, are sent the standard way.
+ *
+ * Rejected recipients are handled as in {@link SMTPTransport}: unless
+ * mail.smtp.sendpartial is set, the transaction is reset and nothing is
+ * sent; otherwise the accepted recipients get the message and the
+ * rejected ones are reported in the {@link SendFailedException}, with an
+ * {@link SMTPAddressFailedException} carrying the reply code for each.
+ *
+ * Registered for the "smtp" protocol with {@link #register(Session)}.
+ */
+public class PipeliningSmtpTransport extends SMTPTransport {
+
+    private static final String[] IGNORED_HEADERS = {"Bcc", "Content-Length"};
+
+    public PipeliningSmtpTransport(Session session, URLName urlname) {
+        super(session, urlname);
+    }
+
+    /**
+     * Make the session create this transport for the "smtp" protocol.
+     *
+     * @param session Mail session
+     */
+    public static void register(Session session) {
+        session.getProperties().put("mail.smtp.class", PipeliningSmtpTransport.class.getName());
+        session.addProvider(new Provider(Provider.Type.TRANSPORT, "smtp",
+            PipeliningSmtpTransport.class.getName(), "buerokratt", null));
+    }
+
+    @Override
+    public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        if (!(message instanceof MimeMessage mimeMessage) || !supportsExtension("PIPELINING")
+            || !isPipelinable(addresses)) {
+            super.sendMessage(message, addresses);
+            return;
+        }
+
+        // Envelope: all commands first, then all replies
+        String from = envelopeFrom(mimeMessage);
+        String mailCommand = "MAIL FROM:<" + from + ">";
+        sendCommand(mailCommand);
+        for (Address address : addresses) {
+            sendCommand(rcptCommand(address));
+        }
+
+        int mailReply = readServerResponse();
+        String mailResponse = getLastServerResponse();
+        List<Address> accepted = new ArrayList<>(addresses.length);
+        List<Address> rejected = new ArrayList<>();
+        // Reply code per rejected recipient, chained as in SMTPTransport
+        List<SMTPAddressFailedException> failures = new ArrayList<>();
+        for (Address address : addresses) {
+            int reply = readServerResponse();
+            if (reply == 250 || reply == 251) {
+                accepted.add(address);
+            } else {
+                rejected.add(address);
+                failures.add(new SMTPAddressFailedException((InternetAddress) address,
+                    rcptCommand(address), reply, getLastServerResponse()));
+            }
+        }
+
+        if (mailReply != 250) {
+            reset();
+            throw new SMTPSenderFailedException(new InternetAddress(from), mailCommand, mailReply, mailResponse);
+        }
+        if (accepted.isEmpty() || (!rejected.isEmpty() && !sendPartial())) {
+            reset();
+            throw invalidAddresses(null, toArray(accepted), rejected, failures);
+        }
+
+        try {
+            mimeMessage.writeTo(data(), IGNORED_HEADERS);
+            finishData();
+        } catch (IOException e) {
+            throw new MessagingException("IOException while sending message", e);
+        }
+
+        if (!rejected.isEmpty()) {
+            throw invalidAddresses(toArray(accepted), null, rejected, failures);
+        }
+    }
+
+    private static String rcptCommand(Address address) {
+        return "RCPT TO:<" + ((InternetAddress) address).getAddress() + ">";
+    }
+
+    private static SendFailedException invalidAddresses(Address[] sent, Address[] unsent, List<Address> rejected,
+                                                        List<SMTPAddressFailedException> failures) {
+        SendFailedException e = new SendFailedException("Invalid Addresses", null, sent, unsent, toArray(rejected));
+        for (SMTPAddressFailedException failure : failures) {
+            e.setNextException(failure);
+        }
+        return e;
+    }
+
+    private boolean isPipelinable(Address[] addresses) {
+        if (addresses == null || addresses.length == 0) {
+            return false;
+        }
+        for (Address address : addresses) {
+            if (!(address instanceof InternetAddress)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String envelopeFrom(MimeMessage message) throws MessagingException {
+        String from = session.getProperty("mail.smtp.from");
+        if (from != null && !from.isBlank()) {
+            return from;
+        }
+
+        Address[] fromHeader = message.getFrom();
+        if (fromHeader != null && fromHeader.length > 0 && fromHeader[0] instanceof InternetAddress address) {
+            return address.getAddress();
+        }
+
+        InternetAddress local = InternetAddress.getLocalAddress(session);
+        if (local == null) {
+            throw new MessagingException("Can't determine envelope sender address");
+        }
+        return local.getAddress();
+    }
+
+    private boolean sendPartial() {
+        return Boolean.parseBoolean(session.getProperty("mail.smtp.sendpartial"));
+    }
+
+    /**
+     * Abort the transaction so the connection can be reused.
+     */
+    private void reset() throws MessagingException {
+        sendCommand("RSET");
+        readServerResponse();
+    }
+
+    private static Address[] toArray(List<Address> addresses) {
+        return addresses.toArray(new Address[0]);
+    }
+}
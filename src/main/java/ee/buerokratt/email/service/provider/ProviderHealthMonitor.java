@@ -0,0 +1,199 @@
+package ee.buerokratt.email.service.provider;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Background health probing for email providers.
+ *
+ * Each provider is probed on a fixed schedule and the result and probe
+ * latency are cached, so health endpoints and readiness checks read the
+ * cache instead of opening a new SMTP session per request. A result
+ * older than three probe intervals counts as unhealthy, so a stuck probe
+ * does not leave a stale UP behind.
+ *
+ * Wrapper and routing providers are skipped; only the providers that
+ * talk to a relay or API are probed.
+ */
+@Component
+public class ProviderHealthMonitor implements HealthIndicator {
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderHealthMonitor.class);
+    private final List<EmailProvider> providers;
+    private final MeterRegistry registry;
+    private final Map<String, ProbeResult> results = new ConcurrentHashMap<>();
+
+    public ProviderHealthMonitor(List<EmailProvider> providers, MeterRegistry registry) {
+        this.providers = probedProviders(providers);
+        this.registry = registry;
+    }
+
+    @Value("${spring.application.name:email-notification-service}")
+    private String applicationName;
+
+    @Value("${email.health.probe-interval:30000}")
+    private long probeIntervalMs;
+
+    @Value("${email.routing.enabled:false}")
+    private boolean routingEnabled;
+
+    /**
+     * Result of the latest probe of one provider.
+     *
+     * @param provider Provider name
+     * @param healthy True if the probe succeeded
+     * @param latencyMs Probe duration
+     * @param checkedAt Probe completion time
+     * @param error Failure reason, or null
+     */
+    public record ProbeResult(String provider, boolean healthy, long latencyMs, Instant checkedAt, String error) {
+    }
+
+    @PostConstruct
+    public void init() {
+        for (EmailProvider provider : providers) {
+            String name = provider.getProviderName();
+
+            Gauge.builder("email_provider_healthy", results, cache -> {
+                    ProbeResult result = cache.get(name);
+                    return result != null && isCurrent(result) && result.healthy() ? 1 : 0;
+                })
+                .description("1 if the latest provider health probe succeeded")
+                .tag("application", applicationName)
+                .tag("provider", name)
+                .register(registry);
+
+            Gauge.builder("email_provider_health_probe_latency_seconds", results, cache -> {
+                    ProbeResult result = cache.get(name);
+                    return result != null ? result.latencyMs() / 1000.0 : Double.NaN;
+                })
+                .description("Duration of the latest provider health probe")
+                .tag("application", applicationName)
+                .tag("provider", name)
+                .register(registry);
+        }
+
+        log.info("Probing health of {} email provider(s) every {}ms", providers.size(), probeIntervalMs);
+    }
+
+    /**
+     * Probe every provider once.
+     */
+    @Scheduled(fixedDelayString = "${email.health.probe-interval:30000}")
+    public void probeAll() {
+        for (EmailProvider provider : providers) {
+            long startTime = System.currentTimeMillis();
+            boolean healthy;
+            String error = null;
+
+            try {
+                healthy = provider.isHealthy();
+                if (!healthy) {
+                    error = "Health check failed";
+                }
+            } catch (Exception e) {
+                healthy = false;
+                error = e.getMessage();
+            }
+
+            ProbeResult result = new ProbeResult(provider.getProviderName(), healthy,
+                System.currentTimeMillis() - startTime, Instant.now(), error);
+            ProbeResult previous = results.put(result.provider(), result);
+
+            if (previous == null || previous.healthy() != healthy) {
+                log.info("Email provider {} is {} (probe took {}ms)",
+                    result.provider(), healthy ? "healthy" : "unhealthy", result.latencyMs());
+            }
+        }
+    }
+
+    /**
+     * @return True if every provider passed its latest probe and none is
+     *         stale, or with routing enabled, if at least one did
+     */
+    public boolean isHealthy() {
+        int healthy = 0;
+        for (EmailProvider provider : providers) {
+            ProbeResult result = results.get(provider.getProviderName());
+            if (result != null && isCurrent(result) && result.healthy()) {
+                healthy++;
+            }
+        }
+        return routingEnabled ? healthy > 0 : healthy == providers.size();
+    }
+
+    /**
+     * @return Latest probe result per provider, or null for providers not probed yet
+     */
+    public Map<String, ProbeResult> getResults() {
+        Map<String, ProbeResult> latest = new LinkedHashMap<>();
+        for (EmailProvider provider : providers) {
+            latest.put(provider.getProviderName(), results.get(provider.getProviderName()));
+        }
+        return latest;
+    }
+
+    @Override
+    public Health health() {
+        if (results.isEmpty()) {
+            return Health.unknown().withDetail("reason", "Not probed yet").build();
+        }
+
+        Health.Builder health = isHealthy() ? Health.up() : Health.down();
+        getResults().forEach((name, result) -> health.withDetail(name, toDetails(result)));
+        return health.build();
+    }
+
+    /**
+     * @return Probe result as a map for health responses
+     */
+    public Map<String, Object> toDetails(ProbeResult result) {
+        Map<String, Object> details = new LinkedHashMap<>();
+        if (result == null) {
+            details.put("status", "UNKNOWN");
+            return details;
+        }
+
+        details.put("status", !isCurrent(result) ? "STALE" : result.healthy() ? "UP" : "DOWN");
+        details.put("latencyMs", result.latencyMs());
+        details.put("checkedAt", result.checkedAt().toString());
+        if (result.error() != null) {
+            details.put("error", result.error());
+        }
+        return details;
+    }
+
+    private boolean isCurrent(ProbeResult result) {
+        return result.checkedAt().isAfter(Instant.now().minusMillis(probeIntervalMs * 3));
+    }
+
+    private static List<EmailProvider> probedProviders(List<EmailProvider> providers) {
+        Set<EmailProvider> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<EmailProvider> probed = new ArrayList<>();
+        for (EmailProvider provider : providers) {
+            if (!(provider instanceof ForwardingEmailProvider) && !(provider instanceof RoutingEmailProvider)
+                && seen.add(provider)) {
+                probed.add(provider);
+            }
+        }
+        return probed;
+    }
+}
@@ -0,0 +1,233 @@
+package ee.buerokratt.email.service.provider;
+
+import ee.buerokratt.email.model.EmailMessage;
+import ee.buerokratt.email.model.EmailResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provider wrapper that keeps sends within the provider's per-second quota.
+ *
+ * All listener threads share one lock-free token bucket. A send waits for
+ * its token when one frees up within the maximum wait; otherwise it fails
+ * with {@link RateLimitedException} without reaching the provider, and the
+ * worker parks the message on the retry queue.
+ *
+ * In Redis mode each replica records a heartbeat in a shared sorted set
+ * and takes an equal share of the quota, based on the number of replicas
+ * seen within the heartbeat TTL. If Redis is unavailable the last known
+ * share is kept.
+ */
+public class RateLimitedEmailProvider extends ForwardingEmailProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitedEmailProvider.class);
+
+    private final TokenBucket bucket;
+    private final Settings settings;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private StringRedisTemplate redisTemplate;
+    private ScheduledExecutorService heartbeat;
+    private volatile int replicas = 1;
+
+    private Timer waitTimer;
+    private Counter limitedCounter;
+
+    /**
+     * Rate limit settings.
+     *
+     * @param ratePerSecond Sends per second allowed across all replicas in Redis mode, or per replica otherwise
+     * @param burst Sends allowed at once after an idle period
+     * @param maxWaitMs Longest a send waits for a token before the message is parked
+     * @param redisKey Sorted set used for replica heartbeats, or null for a local limit
+     * @param heartbeatIntervalMs Interval between heartbeats in Redis mode
+     */
+    public record Settings(double ratePerSecond, int burst, long maxWaitMs, String redisKey,
+                           long heartbeatIntervalMs) {
+    }
+
+    public RateLimitedEmailProvider(EmailProvider delegate, Settings settings) {
+        super(delegate);
+        this.settings = settings;
+        this.bucket = new TokenBucket(settings.ratePerSecond(), settings.burst());
+    }
+
+    /**
+     * Register rate limit metrics.
+     *
+     * @param registry Meter registry
+     * @param applicationName Application name tag
+     */
+    public void bindTo(MeterRegistry registry, String applicationName) {
+        Gauge.builder("email_provider_rate_limit", bucket, TokenBucket::getRate)
+            .description("Sends per second allowed on this replica")
+            .tag("application", applicationName)
+            .tag("provider", getProviderName())
+            .register(registry);
+
+        waitTimer = Timer.builder("email_provider_rate_limit_wait_seconds")
+            .description("Time sends waited for a rate limit token")
+            .tag("application", applicationName)
+            .tag("provider", getProviderName())
+            .register(registry);
+
+        limitedCounter = Counter.builder("email_provider_rate_limited_total")
+            .description("Sends parked because no token was available in time")
+            .tag("application", applicationName)
+            .tag("provider", getProviderName())
+            .register(registry);
+    }
+
+    /**
+     * Share the quota with other replicas through Redis.
+     *
+     * @param redisTemplate Redis template
+     */
+    public void startSharing(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rate-limit-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        heartbeat.scheduleWithFixedDelay(this::refreshShare,
+            0, settings.heartbeatIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sending heartbeats and leave the shared quota.
+     */
+    @Override
+    public void shutdown() {
+        if (heartbeat != null) {
+            heartbeat.shutdown();
+            try {
+                redisTemplate.opsForZSet().remove(settings.redisKey(), instanceId);
+            } catch (RuntimeException e) {
+                log.debug("Failed to remove rate limit heartbeat: {}", e.getMessage());
+            }
+        }
+        super.shutdown();
+    }
+
+    @Override
+    public EmailResult send(EmailMessage message) throws EmailException {
+        long wait = bucket.tryAcquire(1, TimeUnit.MILLISECONDS.toNanos(settings.maxWaitMs()));
+        if (wait < 0) {
+            throw rateLimited();
+        }
+        pause(wait);
+        return delegate.send(message);
+    }
+
+    /**
+     * Send as much of the group as tokens allow within the maximum wait,
+     * in chunks. Messages left when no token frees up in time get a
+     * {@link RateLimitedException} result.
+     */
+    @Override
+    public List<EmailResult> sendAll(List<EmailMessage> messages) {
+        List<EmailResult> results = new ArrayList<>(messages.size());
+        long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(settings.maxWaitMs());
+
+        while (results.size() < messages.size()) {
+            int from = results.size();
+            int chunk = 0;
+            long wait = 0;
+            // Reserve one token at a time until the next one would wait too long
+            while (from + chunk < messages.size()) {
+                long tokenWait = bucket.tryAcquire(1, maxWaitNanos);
+                if (tokenWait < 0) {
+                    break;
+                }
+                wait = tokenWait;
+                chunk++;
+            }
+
+            if (chunk == 0) {
+                RateLimitedException e = rateLimited();
+                while (results.size() < messages.size()) {
+                    results.add(EmailResult.builder()
+                        .success(false)
+                        .provider(getProviderName())
+                        .error(e.getMessage())
+                        .exception(e)
+                        .timestamp(Instant.now())
+                        .duration(0L)
+                        .build());
+                }
+                break;
+            }
+
+            pause(wait);
+            results.addAll(delegate.sendAll(messages.subList(from, from + chunk)));
+        }
+
+        return results;
+    }
+
+    private void pause(long waitNanos) {
+        if (waitTimer != null) {
+            waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+        }
+        if (waitNanos > 0) {
+            long startTime = System.nanoTime();
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                // Token already reserved; send now rather than lose it
+                Thread.currentThread().interrupt();
+            }
+            // Not provider latency; see SendStopwatch
+            SendStopwatch.recordWait(System.nanoTime() - startTime);
+        }
+    }
+
+    private RateLimitedException rateLimited() {
+        if (limitedCounter != null) {
+            limitedCounter.increment();
+        }
+        long retryAfterMs = Math.max(settings.maxWaitMs(), TimeUnit.NANOSECONDS.toMillis(bucket.waitTime()));
+        return new RateLimitedException("Send rate limit reached for " + getProviderName(),
+            getProviderName(), retryAfterMs);
+    }
+
+    /**
+     * Record this replica's heartbeat, drop replicas that stopped sending
+     * them and take an equal share of the quota.
+     */
+    private void refreshShare() {
+        try {
+            long now = System.currentTimeMillis();
+            long ttl = settings.heartbeatIntervalMs() * 3;
+            redisTemplate.opsForZSet().add(settings.redisKey(), instanceId, now);
+            redisTemplate.opsForZSet().removeRangeByScore(settings.redisKey(), 0, now - ttl);
+            redisTemplate.expire(settings.redisKey(), ttl, TimeUnit.MILLISECONDS);
+
+            Long count = redisTemplate.opsForZSet().zCard(settings.redisKey());
+            int current = count != null && count > 0 ? count.intValue() : 1;
+            if (current != replicas) {
+                replicas = current;
+                bucket.setRate(settings.ratePerSecond() / current);
+                log.info("Rate limit for {} shared by {} replicas: {}/s each",
+                    getProviderName(), current, bucket.getRate());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh shared rate limit, keeping {}/s: {}", bucket.getRate(), e.getMessage());
+        }
+    }
+}
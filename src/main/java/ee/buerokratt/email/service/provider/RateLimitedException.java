@@ -0,0 +1,11 @@
+package ee.buerokratt.email.service.provider;
+
+/**
+ * Thrown when a send is held back by the local rate limit.
+ */
+public class RateLimitedException extends SendDeferredException {
+
+    public RateLimitedException(String message, String provider, long retryAfterMs) {
+        super(message, provider, "429", retryAfterMs);
+    }
+}
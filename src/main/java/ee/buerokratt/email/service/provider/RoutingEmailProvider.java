@@ -0,0 +1,387 @@
+package ee.buerokratt.email.service.provider;
+
+import com.google.common.hash.Hashing;
+import ee.buerokratt.email.model.EmailMessage;
+import ee.buerokratt.email.model.EmailResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Provider that routes each message to one of several delegate providers.
+ *
+ * Each route has a configured weight, scaled down by its recent latency
+ * relative to the fastest route and by its recent error rate, and a route
+ * is picked at random in proportion to that effective weight. A route
+ * whose error rate passes the ejection threshold keeps only a trickle of
+ * traffic, enough to notice when it recovers.
+ *
+ * Messages of sticky event types always go to the same route, chosen by
+ * weighted rendezvous hashing of the event type, as long as that route
+ * is not ejected. A send that fails with a retryable error is retried on
+ * the next route until every route has been tried.
+ */
+public class RoutingEmailProvider implements EmailProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(RoutingEmailProvider.class);
+    private static final double EWMA_ALPHA = 0.1;
+    private static final double EJECTED_WEIGHT = 0.02;
+
+    private final List<Route> routes;
+    private final Set<String> stickyEventTypes;
+    private final double ejectionErrorRate;
+
+    /**
+     * @param providers Delegate providers with their weights
+     * @param stickyEventTypes Event types always routed to the same provider, or "*" for all
+     * @param ejectionErrorRate Error rate from which a provider gets only probe traffic
+     */
+    public RoutingEmailProvider(Map<EmailProvider, Double> providers, Set<String> stickyEventTypes,
+                                double ejectionErrorRate) {
+        this.routes = new ArrayList<>();
+        providers.forEach((provider, weight) -> routes.add(new Route(provider, weight)));
+        this.stickyEventTypes = stickyEventTypes;
+        this.ejectionErrorRate = ejectionErrorRate;
+    }
+
+    /**
+     * Register routing metrics.
+     *
+     * @param registry Meter registry
+     * @param applicationName Application name tag
+     */
+    public void bindTo(MeterRegistry registry, String applicationName) {
+        for (Route route : routes) {
+            Gauge.builder("email_routing_effective_weight", route, Route::effectiveWeightMetric)
+                .description("Current routing weight after latency and error adjustment")
+                .tag("application", applicationName)
+                .tag("provider", route.name())
+                .register(registry);
+
+            Gauge.builder("email_routing_error_rate", route, Route::errorRate)
+                .description("Recent error rate seen by the router")
+                .tag("application", applicationName)
+                .tag("provider", route.name())
+                .register(registry);
+
+            route.selected = registry.counter("email_routing_selected_total",
+                "application", applicationName, "provider", route.name());
+            route.failovers = registry.counter("email_routing_failovers_total",
+                "application", applicationName, "provider", route.name());
+        }
+    }
+
+    @Override
+    public EmailResult send(EmailMessage message) throws EmailException {
+        Set<Route> tried = new HashSet<>();
+        Route route = choose(message, tried);
+        EmailException lastError = null;
+
+        while (route != null) {
+            tried.add(route);
+            route.selected.increment();
+
+            SendStopwatch stopwatch = SendStopwatch.start();
+            try {
+                EmailResult result = route.provider.send(message);
+                route.record(stopwatch.elapsedMs(), !result.isSuccess() && isError(result.getException()));
+                if (result.isSuccess() || !isRetryable(result.getException()) || tried.size() == routes.size()) {
+                    return result;
+                }
+                lastError = result.getException() instanceof EmailException e
+                    ? e
+                    : new EmailException(result.getError(), route.name(), null);
+            } catch (EmailException e) {
+                route.record(stopwatch.elapsedMs(), isError(e));
+                if (!e.isRetryable()) {
+                    throw e;
+                }
+                lastError = e;
+            } catch (RuntimeException e) {
+                route.record(stopwatch.elapsedMs(), true);
+                lastError = new EmailException("Failed to send email via " + route.name() + ": " + e.getMessage(),
+                    e, route.name());
+            }
+
+            Route next = choose(message, tried);
+            if (next != null) {
+                route.failovers.increment();
+                log.warn("Failing over email {} from {} to {}: {}",
+                    message.getEventId(), route.name(), next.name(), lastError.getMessage());
+            }
+            route = next;
+        }
+
+        throw lastError;
+    }
+
+    /**
+     * Route each message, send every route's share as one group and fail
+     * over messages that failed with a retryable error one by one.
+     */
+    @Override
+    public List<EmailResult> sendAll(List<EmailMessage> messages) {
+        Map<Route, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            groups.computeIfAbsent(choose(messages.get(i), Set.of()), r -> new ArrayList<>()).add(i);
+        }
+
+        EmailResult[] results = new EmailResult[messages.size()];
+        for (Map.Entry<Route, List<Integer>> group : groups.entrySet()) {
+            Route route = group.getKey();
+            List<EmailMessage> batch = new ArrayList<>(group.getValue().size());
+            for (int index : group.getValue()) {
+                batch.add(messages.get(index));
+            }
+
+            route.selected.increment(batch.size());
+            List<EmailResult> batchResults = route.provider.sendAll(batch);
+
+            for (int i = 0; i < batch.size(); i++) {
+                EmailResult result = batchResults.get(i);
+                boolean retryable = !result.isSuccess() && isRetryable(result.getException());
+                route.record(result.getDuration() != null ? result.getDuration() : 0,
+                    !result.isSuccess() && isError(result.getException()));
+
+                int index = group.getValue().get(i);
+                results[index] = retryable && routes.size() > 1
+                    ? failover(batch.get(i), route, result)
+                    : result;
+            }
+        }
+        return List.of(results);
+    }
+
+    @Override
+    public String getProviderName() {
+        return "routing";
+    }
+
+    /**
+     * @return True if any delegate is healthy
+     */
+    @Override
+    public boolean isHealthy() {
+        return routes.stream().anyMatch(route -> route.provider.isHealthy());
+    }
+
+    /**
+     * Release resources held by wrappers around the delegates.
+     */
+    public void shutdown() {
+        for (Route route : routes) {
+            if (route.provider instanceof ForwardingEmailProvider forwarding) {
+                forwarding.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return Delegate providers
+     */
+    public List<EmailProvider> getDelegates() {
+        return routes.stream().map(route -> route.provider).toList();
+    }
+
+    private EmailResult failover(EmailMessage message, Route failed, EmailResult failedResult) {
+        Set<Route> tried = new HashSet<>(Set.of(failed));
+        Route route;
+        EmailResult result = failedResult;
+
+        while ((route = choose(message, tried)) != null) {
+            tried.add(route);
+            failed.failovers.increment();
+            route.selected.increment();
+            log.warn("Failing over email {} from {} to {}: {}",
+                message.getEventId(), failed.name(), route.name(), result.getError());
+
+            SendStopwatch stopwatch = SendStopwatch.start();
+            try {
+                result = route.provider.send(message);
+            } catch (Exception e) {
+                result = EmailResult.builder()
+                    .success(false)
+                    .provider(route.name())
+                    .error(e.getMessage())
+                    .exception(e)
+                    .timestamp(Instant.now())
+                    .build();
+            }
+            result.setDuration(stopwatch.elapsedMs());
+
+            boolean retryable = !result.isSuccess() && isRetryable(result.getException());
+            route.record(result.getDuration(), !result.isSuccess() && isError(result.getException()));
+            if (!retryable) {
+                return result;
+            }
+            failed = route;
+        }
+        return result;
+    }
+
+    /**
+     * Pick a route for a message, skipping routes already tried.
+     *
+     * @return Route, or null if every route has been tried
+     */
+    private Route choose(EmailMessage message, Set<Route> tried) {
+        List<Route> candidates = new ArrayList<>(routes.size());
+        for (Route route : routes) {
+            if (!tried.contains(route)) {
+                candidates.add(route);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        if (isSticky(message.getEventType())) {
+            Route sticky = rendezvous(message.getEventType(), candidates);
+            if (sticky != null) {
+                return sticky;
+            }
+        }
+
+        double fastest = Double.MAX_VALUE;
+        for (Route route : candidates) {
+            if (route.latencyMs() > 0) {
+                fastest = Math.min(fastest, route.latencyMs());
+            }
+        }
+
+        Map<Route, Double> weights = new IdentityHashMap<>();
+        double total = 0;
+        for (Route route : candidates) {
+            double weight = route.effectiveWeight(fastest);
+            weights.put(route, weight);
+            total += weight;
+        }
+
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (Route route : candidates) {
+            pick -= weights.get(route);
+            if (pick < 0) {
+                return route;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private boolean isSticky(String eventType) {
+        return eventType != null && (stickyEventTypes.contains("*") || stickyEventTypes.contains(eventType));
+    }
+
+    /**
+     * Weighted rendezvous hashing: the same event type maps to the same
+     * route while the set of routes does not change, and losing a route
+     * only moves the event types that were on it.
+     *
+     * @return Highest scoring route that is not ejected, or null
+     */
+    private Route rendezvous(String eventType, List<Route> candidates) {
+        Route best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (Route route : candidates) {
+            if (route.errorRate() >= ejectionErrorRate) {
+                continue;
+            }
+            long hash = Hashing.murmur3_128().hashString(eventType + "|" + route.name(), StandardCharsets.UTF_8).asLong();
+            double unit = ((hash >>> 11) + 1) / (double) (1L << 53);
+            double score = -route.weight / Math.log(unit);
+            if (score > bestScore) {
+                bestScore = score;
+                best = route;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return True if another provider may succeed where this one failed
+     */
+    private boolean isRetryable(Throwable e) {
+        return !(e instanceof EmailException emailException) || emailException.isRetryable();
+    }
+
+    /**
+     * @return True if the failure counts against the provider's error rate;
+     *         sends deferred by a rate limit fail over without counting
+     */
+    private boolean isError(Throwable e) {
+        return isRetryable(e) && !(e instanceof SendDeferredException);
+    }
+
+    /**
+     * A delegate provider with its weight and recent latency and error rate.
+     */
+    private class Route {
+
+        private final EmailProvider provider;
+        private final double weight;
+        private double latencyMs;
+        private double errorRate;
+        private Counter selected;
+        private Counter failovers;
+
+        Route(EmailProvider provider, double weight) {
+            this.provider = provider;
+            this.weight = weight;
+        }
+
+        String name() {
+            return provider.getProviderName();
+        }
+
+        synchronized void record(long durationMs, boolean failed) {
+            errorRate += EWMA_ALPHA * ((failed ? 1 : 0) - errorRate);
+            if (!failed) {
+                latencyMs = latencyMs == 0 ? durationMs : latencyMs + EWMA_ALPHA * (durationMs - latencyMs);
+            }
+        }
+
+        synchronized double latencyMs() {
+            return latencyMs;
+        }
+
+        synchronized double errorRate() {
+            return errorRate;
+        }
+
+        synchronized double effectiveWeight(double fastestLatencyMs) {
+            if (errorRate >= ejectionErrorRate) {
+                return weight * EJECTED_WEIGHT;
+            }
+            double latencyFactor = latencyMs > 0 && fastestLatencyMs < Double.MAX_VALUE
+                ? fastestLatencyMs / latencyMs
+                : 1;
+            double errorFactor = (1 - errorRate) * (1 - errorRate);
+            return Math.max(weight * EJECTED_WEIGHT, weight * latencyFactor * errorFactor);
+        }
+
+        double effectiveWeightMetric() {
+            double fastest = Double.MAX_VALUE;
+            for (Route route : routes) {
+                if (route.latencyMs() > 0) {
+                    fastest = Math.min(fastest, route.latencyMs());
+                }
+            }
+            return effectiveWeight(fastest);
+        }
+    }
+}
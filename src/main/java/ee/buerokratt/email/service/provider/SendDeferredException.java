@@ -0,0 +1,23 @@
+package ee.buerokratt.email.service.provider;
+
+/**
+ * Thrown when a send is held back before reaching the provider, for
+ * example by a rate limit or an open circuit. The message can be retried
+ * after the delay without counting as a failed attempt.
+ */
+public class SendDeferredException extends EmailException {
+
+    private final long retryAfterMs;
+
+    public SendDeferredException(String message, String provider, String errorCode, long retryAfterMs) {
+        super(message, provider, errorCode);
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * @return Suggested delay before retrying, in milliseconds
+     */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+}
@@ -0,0 +1,47 @@
+package ee.buerokratt.email.service.provider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a provider call, leaving out the time the calling thread spent
+ * waiting for rate limit tokens inside it.
+ *
+ * Concurrency limits, circuit breakers and routing judge the provider by
+ * its latency; counting a token wait would make a throttled but healthy
+ * provider look slow. Waits are recorded per thread by
+ * {@link RateLimitedEmailProvider}, and sends run on the caller's thread.
+ */
+public final class SendStopwatch {
+
+    private static final ThreadLocal<long[]> WAITED = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final long startNanos;
+    private final long waitedAtStart;
+
+    private SendStopwatch() {
+        this.startNanos = System.nanoTime();
+        this.waitedAtStart = WAITED.get()[0];
+    }
+
+    /**
+     * @return Stopwatch started now
+     */
+    public static SendStopwatch start() {
+        return new SendStopwatch();
+    }
+
+    /**
+     * @return Milliseconds since start, minus rate limit waits on this thread
+     */
+    public long elapsedMs() {
+        long waited = WAITED.get()[0] - waitedAtStart;
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, System.nanoTime() - startNanos - waited));
+    }
+
+    /**
+     * Record time the current thread spent waiting for a token.
+     */
+    static void recordWait(long nanos) {
+        WAITED.get()[0] += nanos;
+    }
+}
@@ -2,32 +2,64 @@ package ee.buerokratt.email.service.provider;
 
 import ee.buerokratt.email.model.EmailMessage;
 import ee.buerokratt.email.model.EmailResult;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSenderFailedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessageHelper;
-import org.springframework.stereotype.Component;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * SMTP email provider implementation.
  *
  * Uses standard JavaMail API for sending emails via SMTP server.
+ * Connections are taken from a pool of persistent, authenticated
+ * transports unless pooling is disabled. Against relays that support it,
+ * the envelope commands of each message are pipelined.
+ *
+ * Permanent (5xx) rejections and malformed addresses are reported with a
+ * rejection error code, so they go to the dead letter queue instead of
+ * being retried and do not count against the relay's health.
  */
-@Component
-@ConditionalOnProperty(name = "email.provider", havingValue = "smtp")
 public class SmtpEmailProvider implements EmailProvider {
 
     private static final Logger log = LoggerFactory.getLogger(SmtpEmailProvider.class);
+    private final MeterRegistry registry;
 
     private JavaMailSender mailSender;
+    private SmtpTransportPool transportPool;
+
+    public SmtpEmailProvider(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Value("${spring.application.name:email-notification-service}")
+    private String applicationName;
 
     @Value("${email.smtp.host}")
     private String smtpHost;
@@ -53,6 +85,36 @@ public class SmtpEmailProvider implements EmailProvider {
     @Value("${email.smtp.debug:false}")
     private boolean debug;
 
+    @Value("${email.smtp.pipelining:true}")
+    private boolean pipelining;
+
+    @Value("${email.smtp.merge-identical:false}")
+    private boolean mergeIdentical;
+
+    @Value("${email.smtp.pool.enabled:true}")
+    private boolean poolEnabled;
+
+    @Value("${email.smtp.pool.max-per-host:10}")
+    private int poolMaxPerHost;
+
+    @Value("${email.smtp.pool.min-idle:2}")
+    private int poolMinIdle;
+
+    @Value("${email.smtp.pool.max-wait:5000}")
+    private long poolMaxWaitMs;
+
+    @Value("${email.smtp.pool.idle-timeout:60000}")
+    private long poolIdleTimeoutMs;
+
+    @Value("${email.smtp.pool.validate-after:10000}")
+    private long poolValidateAfterMs;
+
+    @Value("${email.smtp.pool.max-messages:100}")
+    private int poolMaxMessages;
+
+    @Value("${email.smtp.pool.evict-interval:30000}")
+    private long poolEvictIntervalMs;
+
     @PostConstruct
     public void init() {
         JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
@@ -75,9 +137,30 @@ public class SmtpEmailProvider implements EmailProvider {
 
         this.mailSender = mailSender;
 
+        if (pipelining) {
+            PipeliningSmtpTransport.register(mailSender.getSession());
+        }
+
+        if (poolEnabled) {
+            transportPool = new SmtpTransportPool(
+                mailSender.getSession(), smtpHost, smtpPort, mailSender.getUsername(), mailSender.getPassword(),
+                new SmtpTransportPool.Settings(poolMaxPerHost, poolMinIdle, poolMaxWaitMs, poolIdleTimeoutMs,
+                    poolValidateAfterMs, poolMaxMessages, poolEvictIntervalMs)
+            );
+            transportPool.bindTo(registry, applicationName);
+            transportPool.start();
+        }
+
         log.info("SMTP Email Provider initialized: {}:{}", smtpHost, smtpPort);
     }
 
+    @PreDestroy
+    public void shutdown() {
+        if (transportPool != null) {
+            transportPool.shutdown();
+        }
+    }
+
     @Override
     public EmailResult send(EmailMessage message) throws EmailException {
         long startTime = System.currentTimeMillis();
@@ -86,39 +169,14 @@ public class SmtpEmailProvider implements EmailProvider {
             log.debug("Sending email via SMTP: to={}, subject={}",
                 message.getTo(), message.getSubject());
 
-            MimeMessage mimeMessage = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(
-                mimeMessage,
-                true,
-                "UTF-8"
-            );
-
-            // Set from address
-            String from = message.getFrom() != null ? message.getFrom() : fromEmail;
-            if (from == null || from.isBlank()) {
-                throw new EmailException("From address is not configured");
-            }
-
-            helper.setFrom(from);
-            helper.setTo(message.getTo());
-            helper.setSubject(message.getSubject() != null ? message.getSubject() : "");
-
-            // Set reply-to if provided
-            if (message.getReplyTo() != null && !message.getReplyTo().isBlank()) {
-                helper.setReplyTo(message.getReplyTo());
-            }
-
-            // Set email body
-            if (message.getTextBody() != null && message.getHtmlBody() != null) {
-                helper.setText(message.getTextBody(), message.getHtmlBody());
-            } else if (message.getHtmlBody() != null) {
-                helper.setText(message.getHtmlBody(), true);
-            } else if (message.getTextBody() != null) {
-                helper.setText(message.getTextBody(), false);
-            }
+            MimeMessage mimeMessage = buildMimeMessage(message);
 
             // Send email
-            mailSender.send(mimeMessage);
+            if (transportPool != null) {
+                sendPooled(mimeMessage);
+            } else {
+                mailSender.send(mimeMessage);
+            }
 
             long duration = System.currentTimeMillis() - startTime;
 
@@ -139,11 +197,292 @@ public class SmtpEmailProvider implements EmailProvider {
             log.error("Failed to send email via SMTP: to={}, error={}",
                 message.getTo(), e.getMessage());
 
-            throw new EmailException(
-                "Failed to send email via SMTP: " + e.getMessage(),
-                e,
-                "smtp"
-            );
+            throw toEmailException(e, rejectionCode(e));
+        }
+    }
+
+    /**
+     * Build the MIME message for an email.
+     */
+    private MimeMessage buildMimeMessage(EmailMessage message) throws MessagingException, EmailException {
+        MimeMessage mimeMessage = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(
+            mimeMessage,
+            true,
+            "UTF-8"
+        );
+
+        // Set from address
+        String from = message.getFrom() != null ? message.getFrom() : fromEmail;
+        if (from == null || from.isBlank()) {
+            throw new EmailException("From address is not configured");
+        }
+
+        helper.setFrom(from);
+        helper.setTo(message.getTo());
+        helper.setSubject(message.getSubject() != null ? message.getSubject() : "");
+
+        // Set reply-to if provided
+        if (message.getReplyTo() != null && !message.getReplyTo().isBlank()) {
+            helper.setReplyTo(message.getReplyTo());
+        }
+
+        // Set email body
+        if (message.getTextBody() != null && message.getHtmlBody() != null) {
+            helper.setText(message.getTextBody(), message.getHtmlBody());
+        } else if (message.getHtmlBody() != null) {
+            helper.setText(message.getHtmlBody(), true);
+        } else if (message.getTextBody() != null) {
+            helper.setText(message.getTextBody(), false);
+        }
+
+        return mimeMessage;
+    }
+
+    /**
+     * Send several emails over one pooled SMTP session, so connection
+     * setup is paid once for the group, with each message's envelope
+     * pipelined when the relay allows it. If the connection drops, the rest
+     * of the group continues on a new one. Each message gets its own result.
+     *
+     * With merge-identical enabled, messages with the same sender, subject
+     * and bodies are sent as one transaction with several RCPT TO
+     * recipients and an undisclosed-recipients To header.
+     */
+    @Override
+    public List<EmailResult> sendAll(List<EmailMessage> messages) {
+        if (transportPool == null) {
+            return EmailProvider.super.sendAll(messages);
+        }
+
+        EmailResult[] results = new EmailResult[messages.size()];
+        SmtpTransportPool.PooledTransport pooled = null;
+
+        try {
+            for (List<Integer> unit : transactions(messages)) {
+                long startTime = System.currentTimeMillis();
+                EmailMessage first = messages.get(unit.get(0));
+                try {
+                    MimeMessage mimeMessage = buildMimeMessage(first);
+                    Address[] recipients = new Address[unit.size()];
+                    for (int i = 0; i < unit.size(); i++) {
+                        recipients[i] = new InternetAddress(messages.get(unit.get(i)).getTo());
+                    }
+                    if (unit.size() > 1) {
+                        mimeMessage.setHeader("To", "undisclosed-recipients:;");
+                    }
+                    mimeMessage.saveChanges();
+
+                    if (pooled == null) {
+                        pooled = transportPool.borrow();
+                    }
+                    try {
+                        pooled.getTransport().sendMessage(mimeMessage, recipients);
+                    } catch (SendFailedException e) {
+                        // Rejected recipients fail on their own; the others were accepted
+                        pooled.sent();
+                        recordPartial(messages, unit, e, startTime, results);
+                        continue;
+                    }
+                    pooled.sent();
+
+                    for (int index : unit) {
+                        results[index] = successResult(messages.get(index), startTime);
+                    }
+                } catch (Exception e) {
+                    log.error("Failed to send email via SMTP: to={}, error={}",
+                        first.getTo(), e.getMessage());
+
+                    if (pooled != null && !pooled.getTransport().isConnected()) {
+                        transportPool.release(pooled, true);
+                        pooled = null;
+                    }
+
+                    for (int index : unit) {
+                        results[index] = failureResult(e, startTime);
+                    }
+                } finally {
+                    if (pooled != null && transportPool.isExhausted(pooled)) {
+                        transportPool.release(pooled, false);
+                        pooled = null;
+                    }
+                }
+            }
+        } finally {
+            if (pooled != null) {
+                transportPool.release(pooled, false);
+            }
+        }
+
+        List<EmailResult> resultList = Arrays.asList(results);
+        log.info("Sent {} emails over pooled SMTP session(s), {} failed", messages.size(),
+            resultList.stream().filter(r -> !r.isSuccess()).count());
+        return resultList;
+    }
+
+    /**
+     * Split a group into SMTP transactions: one per message, or one per
+     * distinct content when merging identical messages.
+     */
+    private Collection<List<Integer>> transactions(List<EmailMessage> messages) {
+        Map<Object, List<Integer>> units = new LinkedHashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            EmailMessage message = messages.get(i);
+            Object key = mergeIdentical
+                ? new Content(message.getFrom(), message.getReplyTo(), message.getSubject(),
+                    message.getHtmlBody(), message.getTextBody())
+                : i;
+            units.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+        return units.values();
+    }
+
+    private void recordPartial(List<EmailMessage> messages, List<Integer> unit, SendFailedException e,
+                               long startTime, EmailResult[] results) {
+        Set<String> accepted = new HashSet<>();
+        if (e.getValidSentAddresses() != null) {
+            for (Address address : e.getValidSentAddresses()) {
+                accepted.add(((InternetAddress) address).getAddress().toLowerCase());
+            }
+        }
+
+        Set<String> unsent = new HashSet<>();
+        if (e.getValidUnsentAddresses() != null) {
+            for (Address address : e.getValidUnsentAddresses()) {
+                unsent.add(((InternetAddress) address).getAddress().toLowerCase());
+            }
+        }
+
+        for (int index : unit) {
+            EmailMessage message = messages.get(index);
+            String to = message.getTo().toLowerCase();
+            if (accepted.contains(to)) {
+                results[index] = successResult(message, startTime);
+            } else if (unsent.contains(to)) {
+                // Held back because another recipient of the transaction was rejected
+                results[index] = failureResult(new SendDeferredException(
+                    "Not sent: another recipient in the SMTP transaction was rejected", getProviderName(), null, 0),
+                    startTime);
+            } else {
+                log.error("SMTP recipient rejected: to={}, error={}", message.getTo(), e.getMessage());
+                results[index] = failureResult(toEmailException(e, recipientRejectionCode(e, to)), startTime);
+            }
+        }
+    }
+
+    /**
+     * Wrap an SMTP failure, tagging permanent rejections with an error code
+     * so they are neither retried nor counted against the relay.
+     */
+    private EmailException toEmailException(Exception e, String errorCode) {
+        if (e instanceof EmailException emailException) {
+            return emailException;
+        }
+        return new EmailException("Failed to send email via SMTP: " + e.getMessage(), e, getProviderName(), errorCode);
+    }
+
+    /**
+     * Classify a failed send from the SMTP replies chained to it.
+     *
+     * @return {@link EmailException#MESSAGE_REJECTED} if the sender or
+     *         message got a 5xx reply, {@link EmailException#RECIPIENT_REJECTED}
+     *         if the recipients were malformed or all got 5xx replies, or null
+     *         for connection, timeout and transient 4xx failures
+     */
+    private static String rejectionCode(Exception e) {
+        if (e instanceof MailSendException mailSendException) {
+            Exception[] causes = mailSendException.getMessageExceptions();
+            return causes.length == 1 ? rejectionCode(causes[0]) : null;
+        }
+        if (e instanceof AddressException) {
+            return EmailException.RECIPIENT_REJECTED;
+        }
+
+        boolean recipientRejected = false;
+        for (Exception current = e; current != null; current = next(current)) {
+            if (current instanceof SMTPSendFailedException failed) {
+                return isPermanent(failed.getReturnCode()) ? EmailException.MESSAGE_REJECTED : null;
+            } else if (current instanceof SMTPSenderFailedException failed) {
+                return isPermanent(failed.getReturnCode()) ? EmailException.MESSAGE_REJECTED : null;
+            } else if (current instanceof SMTPAddressFailedException failed) {
+                if (!isPermanent(failed.getReturnCode())) {
+                    return null;
+                }
+                recipientRejected = true;
+            }
+        }
+        return recipientRejected ? EmailException.RECIPIENT_REJECTED : null;
+    }
+
+    /**
+     * @return {@link EmailException#RECIPIENT_REJECTED} if the relay refused
+     *         this recipient with a 5xx reply, otherwise null
+     */
+    private static String recipientRejectionCode(SendFailedException e, String recipient) {
+        for (Exception current = e; current != null; current = next(current)) {
+            if (current instanceof SMTPAddressFailedException failed
+                && recipient.equalsIgnoreCase(failed.getAddress().getAddress())) {
+                return isPermanent(failed.getReturnCode()) ? EmailException.RECIPIENT_REJECTED : null;
+            }
+        }
+        return null;
+    }
+
+    private static Exception next(Exception e) {
+        return e instanceof MessagingException messagingException ? messagingException.getNextException() : null;
+    }
+
+    private static boolean isPermanent(int replyCode) {
+        return replyCode >= 500 && replyCode < 600;
+    }
+
+    private EmailResult successResult(EmailMessage message, long startTime) {
+        return EmailResult.builder()
+            .success(true)
+            .messageId(message.getEventId())
+            .provider(getProviderName())
+            .timestamp(Instant.now())
+            .duration(System.currentTimeMillis() - startTime)
+            .build();
+    }
+
+    private EmailResult failureResult(Exception e, long startTime) {
+        EmailException error = toEmailException(e, rejectionCode(e));
+        return EmailResult.builder()
+            .success(false)
+            .provider(getProviderName())
+            .error(error.getMessage())
+            .exception(error)
+            .timestamp(Instant.now())
+            .duration(System.currentTimeMillis() - startTime)
+            .build();
+    }
+
+    /**
+     * Fields that make two messages identical for merging.
+     */
+    private record Content(String from, String replyTo, String subject, String htmlBody, String textBody) {
+    }
+
+    /**
+     * Send over a pooled connection. The connection goes back to the pool
+     * unless the failure left it unusable.
+     */
+    private void sendPooled(MimeMessage mimeMessage) throws MessagingException {
+        mimeMessage.saveChanges();
+
+        SmtpTransportPool.PooledTransport pooled = transportPool.borrow();
+        boolean broken = false;
+        try {
+            Transport transport = pooled.getTransport();
+            transport.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+            pooled.sent();
+        } catch (MessagingException | RuntimeException e) {
+            // A rejected message leaves the session usable; a dropped connection does not
+            broken = !pooled.getTransport().isConnected();
+            throw e;
+        } finally {
+            transportPool.release(pooled, broken);
         }
     }
 
@@ -0,0 +1,288 @@
+package ee.buerokratt.email.service.provider;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of connected, authenticated SMTP transports for one relay host.
+ *
+ * Borrowing reuses an idle connection when there is one, so the TCP,
+ * STARTTLS and AUTH handshakes are paid once per connection rather than
+ * once per email. Connections idle for longer than the validation
+ * interval are checked with NOOP before use, connections idle past the
+ * idle timeout are closed in the background (keeping min-idle open), and
+ * a connection is retired after a maximum number of messages, since
+ * relays limit messages per session. A borrower may send several
+ * messages over a connection before giving it back.
+ */
+public class SmtpTransportPool {
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    private final Session session;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final Settings settings;
+
+    private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+
+    private Timer waitTimer;
+    private Counter createdCounter;
+    private Counter destroyedCounter;
+
+    /**
+     * Pool limits and timings.
+     *
+     * @param maxPerHost Maximum connections to the host
+     * @param minIdle Idle connections kept open and opened at startup
+     * @param maxWaitMs Maximum time to wait for a free connection
+     * @param idleTimeoutMs Idle time after which a connection is closed
+     * @param validateAfterMs Idle time after which a connection is checked with NOOP before use
+     * @param maxMessages Messages sent before a connection is retired
+     * @param evictIntervalMs Interval between idle eviction runs
+     */
+    public record Settings(int maxPerHost, int minIdle, long maxWaitMs, long idleTimeoutMs,
+                           long validateAfterMs, int maxMessages, long evictIntervalMs) {
+    }
+
+    public SmtpTransportPool(Session session, String host, int port, String username, String password,
+                             Settings settings) {
+        this.session = session;
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.maxPerHost(), true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "smtp-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Register pool metrics.
+     *
+     * @param registry Meter registry
+     * @param applicationName Application name tag
+     */
+    public void bindTo(MeterRegistry registry, String applicationName) {
+        Gauge.builder("email_smtp_pool_active", this, pool -> pool.activeCount())
+            .description("SMTP connections currently borrowed")
+            .tag("application", applicationName)
+            .tag("host", host)
+            .register(registry);
+
+        Gauge.builder("email_smtp_pool_idle", idle, BlockingDeque::size)
+            .description("Open SMTP connections waiting to be borrowed")
+            .tag("application", applicationName)
+            .tag("host", host)
+            .register(registry);
+
+        waitTimer = Timer.builder("email_smtp_pool_wait_seconds")
+            .description("Time spent waiting to borrow an SMTP connection")
+            .tag("application", applicationName)
+            .tag("host", host)
+            .register(registry);
+
+        createdCounter = Counter.builder("email_smtp_pool_connections_created_total")
+            .tag("application", applicationName)
+            .tag("host", host)
+            .register(registry);
+
+        destroyedCounter = Counter.builder("email_smtp_pool_connections_closed_total")
+            .tag("application", applicationName)
+            .tag("host", host)
+            .register(registry);
+    }
+
+    /**
+     * Open min-idle connections and start idle eviction. Failures to
+     * connect are logged; connections are then opened on demand.
+     */
+    public void start() {
+        for (int i = 0; i < settings.minIdle(); i++) {
+            try {
+                idle.offerFirst(new PooledTransport(connect()));
+            } catch (MessagingException e) {
+                log.warn("Failed to warm SMTP pool for {}:{}: {}", host, port, e.getMessage());
+                break;
+            }
+        }
+
+        evictor.scheduleWithFixedDelay(this::evictIdle,
+            settings.evictIntervalMs(), settings.evictIntervalMs(), TimeUnit.MILLISECONDS);
+
+        log.info("SMTP pool started for {}:{} with {} warm connections (max {})",
+            host, port, idle.size(), settings.maxPerHost());
+    }
+
+    /**
+     * Borrow a connected transport. It must be given back with
+     * {@link #release(PooledTransport, boolean)}.
+     *
+     * @return Connected transport
+     * @throws MessagingException If no connection is free in time or a new one cannot be opened
+     */
+    public PooledTransport borrow() throws MessagingException {
+        long startTime = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(settings.maxWaitMs(), TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("Timed out waiting for an SMTP connection to " + host);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted waiting for an SMTP connection to " + host);
+        } finally {
+            if (waitTimer != null) {
+                waitTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        try {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled;
+                }
+                close(pooled);
+            }
+            return new PooledTransport(connect());
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give a borrowed transport back.
+     *
+     * @param pooled Borrowed transport
+     * @param broken True if the connection failed and must not be reused
+     */
+    public void release(PooledTransport pooled, boolean broken) {
+        try {
+            if (broken || isExhausted(pooled)) {
+                close(pooled);
+            } else {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * @param pooled Borrowed transport
+     * @return True if the transport has sent its maximum number of messages
+     */
+    public boolean isExhausted(PooledTransport pooled) {
+        return pooled.messages >= settings.maxMessages();
+    }
+
+    /**
+     * Close all idle connections and stop eviction.
+     */
+    public void shutdown() {
+        evictor.shutdown();
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            close(pooled);
+        }
+    }
+
+    /**
+     * @return Number of connections currently borrowed
+     */
+    public int activeCount() {
+        return settings.maxPerHost() - permits.availablePermits();
+    }
+
+    private boolean isUsable(PooledTransport pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < settings.validateAfterMs()) {
+            return true;
+        }
+        // SMTPTransport.isConnected() sends NOOP to check the connection is alive
+        return pooled.transport.isConnected();
+    }
+
+    private Transport connect() throws MessagingException {
+        Transport transport = session.getTransport("smtp");
+        transport.connect(host, port, username, password);
+        if (createdCounter != null) {
+            createdCounter.increment();
+        }
+        return transport;
+    }
+
+    private void close(PooledTransport pooled) {
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            log.debug("Error closing SMTP connection: {}", e.getMessage());
+        }
+        if (destroyedCounter != null) {
+            destroyedCounter.increment();
+        }
+    }
+
+    /**
+     * Close connections idle past the timeout, oldest first, keeping min-idle open.
+     */
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - settings.idleTimeoutMs();
+        Iterator<PooledTransport> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && idle.size() > settings.minIdle()) {
+            PooledTransport pooled = oldestFirst.next();
+            if (pooled.lastUsed < cutoff && idle.removeLastOccurrence(pooled)) {
+                close(pooled);
+            }
+        }
+    }
+
+    /**
+     * A pooled SMTP connection and its usage.
+     */
+    public static class PooledTransport {
+
+        private final Transport transport;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private int messages;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * Count a message sent over this connection.
+         */
+        public void sent() {
+            messages++;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ee.buerokratt.email.service.provider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ *
+ * The bucket state is a single timestamp: the time at which the bucket
+ * would be full again if no more tokens were taken. Taking tokens moves
+ * it forward by one emission interval per token with a compare-and-set,
+ * so listener threads never block each other. A caller that has to wait
+ * for its tokens gets the wait time back and has already reserved them.
+ */
+public class TokenBucket {
+
+    private final AtomicLong fullAt;
+    private final int burst;
+    private volatile long intervalNanos;
+
+    /**
+     * @param ratePerSecond Tokens added per second
+     * @param burst Maximum tokens that can be taken at once without waiting
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.burst = Math.max(1, burst);
+        this.intervalNanos = toInterval(ratePerSecond);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Reserve tokens if they become available within the wait limit.
+     *
+     * @param tokens Tokens to take
+     * @param maxWaitNanos Longest acceptable wait
+     * @return Nanoseconds to wait before using the tokens, or -1 if they
+     *         would not be available in time and nothing was reserved
+     */
+    public long tryAcquire(int tokens, long maxWaitNanos) {
+        long interval = intervalNanos;
+        long tolerance = interval * burst;
+
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + interval * tokens;
+            long wait = Math.max(0, next - now - tolerance);
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * @return Nanoseconds until one token is available
+     */
+    public long waitTime() {
+        long wait = fullAt.get() + intervalNanos - System.nanoTime() - intervalNanos * burst;
+        return Math.max(0, wait);
+    }
+
+    /**
+     * Change the refill rate. Tokens already reserved keep their times.
+     *
+     * @param ratePerSecond Tokens added per second
+     */
+    public void setRate(double ratePerSecond) {
+        intervalNanos = toInterval(ratePerSecond);
+    }
+
+    /**
+     * @return Tokens added per second
+     */
+    public double getRate() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    private static long toInterval(double ratePerSecond) {
+        return Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+    }
+}
@@ -0,0 +1,176 @@
+package ee.buerokratt.email.worker;
+
+import ee.buerokratt.email.service.provider.EmailException;
+import ee.buerokratt.email.service.provider.SendDeferredException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adaptive limit on concurrent provider sends (AIMD).
+ *
+ * Listener threads take a permit before calling the provider. The limit
+ * grows by one for every limit's worth of healthy sends and is cut by the
+ * backoff ratio when a send fails or takes longer than the latency
+ * tolerance times the running baseline, so sends back off when the relay
+ * slows down and ramp up while it keeps up. Only one cut is made per
+ * round of in-flight sends, so a burst of failures from one slow period
+ * does not collapse the limit to the floor.
+ *
+ * The listener container's maximum concurrency caps the threads that can
+ * wait here, so the ceiling should not exceed it.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+    private static final double BASELINE_ALPHA = 0.05;
+
+    private final MeterRegistry registry;
+
+    public AdaptiveConcurrencyLimiter(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Value("${spring.application.name:email-notification-service}")
+    private String applicationName;
+
+    @Value("${email.worker.concurrency-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${email.worker.concurrency-limit.initial:10}")
+    private int initialLimit;
+
+    @Value("${email.worker.concurrency-limit.min:2}")
+    private int minLimit;
+
+    @Value("${email.worker.concurrency-limit.max:20}")
+    private int maxLimit;
+
+    @Value("${email.worker.concurrency-limit.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    @Value("${email.worker.concurrency-limit.latency-tolerance:2.0}")
+    private double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private double baselineMs;
+    private long lastDecreaseNanos;
+
+    @PostConstruct
+    public void init() {
+        limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+
+        Gauge.builder("email_worker_concurrency_limit", this, AdaptiveConcurrencyLimiter::getLimit)
+            .description("Current limit on concurrent provider sends")
+            .tag("application", applicationName)
+            .register(registry);
+
+        Gauge.builder("email_worker_concurrency_in_flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+            .description("Provider sends currently in progress")
+            .tag("application", applicationName)
+            .register(registry);
+
+        log.info("Adaptive concurrency limit {}: initial={}, min={}, max={}",
+            enabled ? "enabled" : "disabled", (int) limit, minLimit, maxLimit);
+    }
+
+    /**
+     * Wait for a send permit. Each permit must be returned with
+     * {@link #release(long, int, long, boolean)}.
+     *
+     * @return Start time to pass back on release
+     */
+    public synchronized long acquire() {
+        if (enabled) {
+            try {
+                while (inFlight >= (int) limit) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                // Shutting down: let the send through rather than drop the message
+                Thread.currentThread().interrupt();
+            }
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Return a send permit and adjust the limit from the outcome.
+     *
+     * @param startNanos Start time returned by {@link #acquire()}
+     * @param messages Number of messages sent under the permit
+     * @param durationMs Total send duration
+     * @param overloaded True if the send failed in a way that suggests provider overload
+     */
+    public synchronized void release(long startNanos, int messages, long durationMs, boolean overloaded) {
+        inFlight--;
+
+        if (enabled) {
+            double latencyMs = (double) durationMs / Math.max(1, messages);
+            boolean slow = baselineMs > 0 && latencyMs > baselineMs * latencyTolerance;
+            if (!overloaded) {
+                // Slow samples move the baseline too, so a lasting slowdown becomes the new normal
+                baselineMs = baselineMs == 0 ? latencyMs : baselineMs + BASELINE_ALPHA * (latencyMs - baselineMs);
+            }
+
+            if (overloaded || slow) {
+                decrease(startNanos);
+            } else {
+                // Only grow while the limit is actually in use
+                if (inFlight + 1 >= (int) limit / 2) {
+                    limit = Math.min(maxLimit, limit + (double) messages / limit);
+                }
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * @param e Exception from a failed send, or null
+     * @return True if the failure should count as provider overload:
+     *         connection and timeout errors and transient (4xx) replies.
+     *         Rejected recipients and messages, other permanent errors and
+     *         sends held back before reaching the provider do not
+     */
+    public static boolean isOverload(Throwable e) {
+        if (e == null || e instanceof SendDeferredException) {
+            return false;
+        }
+        if (e instanceof EmailException emailException) {
+            return !emailException.isRejection() && emailException.isRetryable();
+        }
+        return true;
+    }
+
+    public synchronized double getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void decrease(long startNanos) {
+        // Sends started before the last cut reflect the load that caused it
+        if (startNanos < lastDecreaseNanos) {
+            return;
+        }
+
+        double previous = limit;
+        limit = Math.max(minLimit, limit * backoffRatio);
+        lastDecreaseNanos = System.nanoTime();
+
+        if ((int) previous != (int) limit) {
+            log.info("Reduced email send concurrency limit to {} (baseline latency {}ms)",
+                (int) limit, Math.round(baselineMs));
+        }
+    }
+}
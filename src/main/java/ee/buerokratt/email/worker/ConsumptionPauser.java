@@ -0,0 +1,86 @@
+package ee.buerokratt.email.worker;
+
+import ee.buerokratt.email.service.provider.CircuitBreaker;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.Lifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pauses email consumption while the provider circuit is open.
+ *
+ * When the circuit opens, the running listener containers are stopped so
+ * messages stay on the queue instead of being taken only to be parked on
+ * the retry queue. When the circuit goes half-open the same containers
+ * are started again, so the probe sends can reach the provider.
+ *
+ * Containers are stopped asynchronously, so the circuit breaker's thread
+ * never waits for in-flight deliveries. A container that is still
+ * stopping when the circuit leaves the open state is started as soon as
+ * its stop completes.
+ */
+@Component
+@ConditionalOnProperty(name = "email.circuit-breaker.enabled", havingValue = "true", matchIfMissing = true)
+public class ConsumptionPauser {
+
+    private static final Logger log = LoggerFactory.getLogger(ConsumptionPauser.class);
+    private final CircuitBreaker circuitBreaker;
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final List<Lifecycle> paused = new ArrayList<>();
+    private final Set<MessageListenerContainer> stopping = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean open;
+
+    public ConsumptionPauser(CircuitBreaker circuitBreaker, RabbitListenerEndpointRegistry listenerRegistry) {
+        this.circuitBreaker = circuitBreaker;
+        this.listenerRegistry = listenerRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        circuitBreaker.addListener(this::onStateChange);
+    }
+
+    private synchronized void onStateChange(CircuitBreaker.State state) {
+        if (state == CircuitBreaker.State.OPEN) {
+            open = true;
+            int count = 0;
+            for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+                if (container.isRunning() && stopping.add(container)) {
+                    // In-flight deliveries are rejected fast by the open circuit
+                    container.stop(() -> onStopped(container));
+                    count++;
+                }
+            }
+            log.warn("Pausing {} email listener(s) while circuit {} is open", count, circuitBreaker.getName());
+        } else {
+            open = false;
+            if (!paused.isEmpty()) {
+                paused.forEach(Lifecycle::start);
+                log.info("Resumed {} email listener(s), circuit {} is {}",
+                    paused.size(), circuitBreaker.getName(), state);
+                paused.clear();
+            }
+        }
+    }
+
+    private synchronized void onStopped(MessageListenerContainer container) {
+        stopping.remove(container);
+        if (open) {
+            paused.add(container);
+        } else {
+            // Circuit closed again while the container was stopping
+            container.start();
+            log.info("Resumed email listener, circuit {} is no longer open", circuitBreaker.getName());
+        }
+    }
+}
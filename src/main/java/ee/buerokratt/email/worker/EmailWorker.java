@@ -1,16 +1,19 @@
 package ee.buerokratt.email.worker;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import ee.buerokratt.email.model.EmailMessage;
 import ee.buerokratt.email.model.EmailResult;
+import ee.buerokratt.email.service.ClaimCheckStore;
+import ee.buerokratt.email.service.EmailMessageCodec;
 import ee.buerokratt.email.service.QueueService;
+import ee.buerokratt.email.service.TemplateService;
 import ee.buerokratt.email.service.provider.EmailProvider;
 import ee.buerokratt.email.service.provider.EmailException;
+import ee.buerokratt.email.service.provider.SendDeferredException;
+import ee.buerokratt.email.service.provider.SendStopwatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
@@ -19,6 +22,16 @@ import com.rabbitmq.client.Channel;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Worker for processing email messages from RabbitMQ queue.
@@ -34,14 +47,22 @@ public class EmailWorker {
     private final EmailProvider emailProvider;
     private final QueueService queueService;
     private final EmailWorkerMetrics metrics;
-    private final ObjectMapper objectMapper;
+    private final EmailMessageCodec codec;
+    private final ClaimCheckStore claimCheckStore;
+    private final TemplateService templateService;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
 
     public EmailWorker(EmailProvider emailProvider, QueueService queueService,
-                       EmailWorkerMetrics metrics, ObjectMapper objectMapper) {
+                       EmailWorkerMetrics metrics, EmailMessageCodec codec,
+                       ClaimCheckStore claimCheckStore, TemplateService templateService,
+                       AdaptiveConcurrencyLimiter concurrencyLimiter) {
         this.emailProvider = emailProvider;
         this.queueService = queueService;
         this.metrics = metrics;
-        this.objectMapper = objectMapper;
+        this.codec = codec;
+        this.claimCheckStore = claimCheckStore;
+        this.templateService = templateService;
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
     @Value("${email.retry.max-critical:5}")
@@ -56,28 +77,180 @@ public class EmailWorker {
     @Value("${email.retry.max-low:1}")
     private int maxRetriesLow;
 
+    @Value("${email.worker.handoff-wait:35000}")
+    private long handOffWaitMs;
+
+    @Value("${email.worker.batch.group-by-domain:true}")
+    private boolean groupByDomain;
+
     /**
      * Process email messages from the main queue.
      *
-     * @param jsonMessage JSON message from queue
+     * @param amqpMessage Raw message from queue
      * @param channel RabbitMQ channel
-     * @param deliveryTag Delivery tag for acknowledgment
      */
     @RabbitListener(
         queues = "email.notifications",
-        concurrency = "5-20",
-        containerFactory = "rabbitListenerContainerFactory"
+        concurrency = "${email.worker.concurrency:5-20}",
+        containerFactory = "rabbitListenerContainerFactory",
+        autoStartup = "#{!${email.worker.batch.enabled:false}}"
     )
     public void processEmail(
-        String jsonMessage,
-        Channel channel,
-        long deliveryTag
+        Message amqpMessage,
+        Channel channel
     ) {
-        EmailMessage message = null;
+        long deliveryTag = amqpMessage.getMessageProperties().getDeliveryTag();
+        EmailMessage message = decode(amqpMessage);
+
+        Outcome outcome = Outcome.REJECT;
+        if (message != null) {
+            outcome = prepare(message);
+            if (outcome == null) {
+                outcome = send(message);
+            }
+        }
+
+        settle(channel, deliveryTag, outcome);
+    }
+
+    /**
+     * Process email messages from the main queue in batches.
+     *
+     * Messages are grouped by recipient domain and each group is sent
+     * through the provider in one call, so providers that support it can
+     * reuse a connection for the group. The batch size and receive timeout
+     * bound how long messages wait to be grouped. The longest run of
+     * settled messages from the start of the batch is acknowledged with a
+     * single multiple ack; the rest are settled one by one. Failed messages
+     * still go individually to retry or DLQ. The batch is always settled,
+     * and messages of a group that could not be sent are requeued.
+     *
+     * @param amqpMessages Raw messages from queue, in delivery order
+     * @param channel RabbitMQ channel
+     */
+    @RabbitListener(
+        queues = "email.notifications",
+        concurrency = "${email.worker.batch.concurrency:2-8}",
+        containerFactory = "batchListenerContainerFactory",
+        autoStartup = "${email.worker.batch.enabled:false}"
+    )
+    public void processEmailBatch(
+        List<Message> amqpMessages,
+        Channel channel
+    ) {
+        Outcome[] outcomes = new Outcome[amqpMessages.size()];
+        List<EmailMessage> sendable = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < amqpMessages.size(); i++) {
+                EmailMessage message = decode(amqpMessages.get(i));
+                if (message == null) {
+                    outcomes[i] = Outcome.REJECT;
+                    continue;
+                }
+
+                outcomes[i] = prepare(message);
+                if (outcomes[i] == null) {
+                    sendable.add(message);
+                    indexes.add(i);
+                }
+            }
+
+            for (List<Integer> group : groupByDomain(sendable)) {
+                sendGroup(sendable, indexes, group, outcomes);
+            }
+        } finally {
+            // Messages without an outcome were never handed off; put them back on the queue
+            for (int i = 0; i < outcomes.length; i++) {
+                if (outcomes[i] == null) {
+                    outcomes[i] = Outcome.REQUEUE;
+                }
+            }
+            settleBatch(channel, amqpMessages, outcomes);
+        }
+    }
+
+    /**
+     * Send one provider group and record an outcome per message. If the
+     * group send fails, its messages are left without an outcome and get
+     * requeued; if handing a single failed message to the retry queue or
+     * DLQ fails, that message is requeued.
+     */
+    private void sendGroup(List<EmailMessage> sendable, List<Integer> indexes, List<Integer> group, Outcome[] outcomes) {
+        List<EmailMessage> messages = new ArrayList<>(group.size());
+        for (int i : group) {
+            messages.add(sendable.get(i));
+        }
+        String domain = domainOf(messages.get(0).getTo());
+
+        List<EmailResult> results;
+        try {
+            log.info("Sending batch of {} emails to {}", messages.size(), domain);
+            results = sendAllLimited(messages);
+        } catch (RuntimeException e) {
+            log.error("Failed to send batch of {} emails to {}, requeueing", messages.size(), domain, e);
+            return;
+        }
+
+        for (int i = 0; i < group.size(); i++) {
+            EmailResult result = results.get(i);
+            try {
+                outcomes[indexes.get(group.get(i))] = handleResult(messages.get(i), result);
+            } catch (RuntimeException e) {
+                log.error("Failed to handle send result for email: event={}", messages.get(i).getEventId(), e);
+                // A sent message must not be sent again; anything else goes back to the queue
+                outcomes[indexes.get(group.get(i))] = result.isSuccess() ? Outcome.ACK : Outcome.REQUEUE;
+            }
+        }
+    }
+
+    /**
+     * Split sendable messages into provider groups. With domain grouping
+     * enabled, messages for the same recipient domain form one group, so
+     * they go out consecutively over one connection; otherwise the whole
+     * batch is one group.
+     *
+     * @return Groups of indexes into the sendable list, in first-seen order
+     */
+    private Collection<List<Integer>> groupByDomain(List<EmailMessage> sendable) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < sendable.size(); i++) {
+            String key = groupByDomain ? domainOf(sendable.get(i).getTo()) : "";
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+        return groups.values();
+    }
 
+    private String domainOf(String address) {
+        int at = address != null ? address.lastIndexOf('@') : -1;
+        return at >= 0 ? address.substring(at + 1).trim().toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * Decode a queued message.
+     *
+     * @return Email message, or null if the payload is unreadable
+     */
+    private EmailMessage decode(Message amqpMessage) {
+        try {
+            return codec.decode(amqpMessage);
+        } catch (IOException e) {
+            // Unreadable payload: dead-letter it as is, retrying cannot help
+            log.error("Failed to decode email message, rejecting: {}", e.getMessage());
+            metrics.recordEmailFailed("unknown", "decode_error");
+            return null;
+        }
+    }
+
+    /**
+     * Get a message ready to send: defer it if scheduled for later, render
+     * it if it was queued unrendered and fetch claim-checked bodies.
+     *
+     * @return Outcome if the message is settled without sending, null if it should be sent
+     */
+    private Outcome prepare(EmailMessage message) {
         try {
-            // Parse message
-            message = objectMapper.readValue(jsonMessage, EmailMessage.class);
             log.info("Processing email: event={}, to={}", message.getEventId(), message.getTo());
 
             // Check if scheduled for future
@@ -86,60 +259,175 @@ public class EmailWorker {
                 log.debug("Email scheduled for future: event={}, time={}",
                     message.getEventId(), message.getScheduledFor());
                 // Requeue with delay
-                channel.basicNack(deliveryTag, false, true);
-                return;
+                return Outcome.REQUEUE;
             }
 
-            // Send email
-            long startTime = System.currentTimeMillis();
-            EmailResult result = emailProvider.send(message);
-            long duration = System.currentTimeMillis() - startTime;
-
-            if (result.isSuccess()) {
-                handleSuccess(message, result, duration, channel, deliveryTag);
-            } else {
-                handleFailure(message, result.getError(), channel, deliveryTag);
+            // Render messages queued with only a template reference
+            if (templateService.needsRendering(message)) {
+                templateService.renderTemplate(message);
             }
 
+            // Fetch bodies stored outside the message
+            claimCheckStore.checkOut(message);
+            return null;
+
+        } catch (Exception e) {
+            log.error("Unexpected error processing email", e);
+            return handleUnexpectedError(message, e);
+        }
+    }
+
+    private Outcome send(EmailMessage message) {
+        try {
+            // Send email
+            EmailResult result = sendLimited(message);
+            return handleResult(message, result);
+
+        } catch (SendDeferredException e) {
+            return handleProviderError(message, e);
         } catch (EmailException e) {
             log.error("Email provider error", e);
-            handleProviderError(message, e, channel, deliveryTag);
+            return handleProviderError(message, e);
         } catch (Exception e) {
             log.error("Unexpected error processing email", e);
-            handleUnexpectedError(message, e, channel, deliveryTag);
+            return handleUnexpectedError(message, e);
         }
     }
 
-    private void handleSuccess(
-        EmailMessage message,
-        EmailResult result,
-        long duration,
-        Channel channel,
-        long deliveryTag
-    ) {
+    /**
+     * Send one message under a concurrency permit, feeding its latency and
+     * outcome back into the limit.
+     */
+    private EmailResult sendLimited(EmailMessage message) throws EmailException {
+        long permit = concurrencyLimiter.acquire();
+        SendStopwatch stopwatch = SendStopwatch.start();
+        boolean overloaded = true;
         try {
-            log.info("Email sent successfully: event={}, provider={}, duration={}ms",
-                message.getEventId(), result.getProvider(), duration);
+            EmailResult result = emailProvider.send(message);
+            result.setDuration(stopwatch.elapsedMs());
+            overloaded = isOverload(result);
+            return result;
+        } catch (EmailException | RuntimeException e) {
+            overloaded = AdaptiveConcurrencyLimiter.isOverload(e);
+            throw e;
+        } finally {
+            concurrencyLimiter.release(permit, 1, stopwatch.elapsedMs(), overloaded);
+        }
+    }
 
-            // Record metrics
-            metrics.recordEmailSent(result.getProvider(), message.getEventType(), duration);
+    /**
+     * Send a group under one concurrency permit. Latency is counted per
+     * message so groups and single sends feed the same baseline.
+     */
+    private List<EmailResult> sendAllLimited(List<EmailMessage> messages) {
+        long permit = concurrencyLimiter.acquire();
+        SendStopwatch stopwatch = SendStopwatch.start();
+        boolean overloaded = true;
+        try {
+            List<EmailResult> results = emailProvider.sendAll(messages);
+            overloaded = results.stream().anyMatch(this::isOverload);
+            return results;
+        } finally {
+            concurrencyLimiter.release(permit, messages.size(), stopwatch.elapsedMs(), overloaded);
+        }
+    }
 
-            // Acknowledge message
-            channel.basicAck(deliveryTag, false);
+    /**
+     * @return True if a send result points at an overloaded or failing
+     *         provider rather than a problem with the message itself
+     */
+    private boolean isOverload(EmailResult result) {
+        if (result.isSuccess()) {
+            return false;
+        }
+        return result.getException() == null || AdaptiveConcurrencyLimiter.isOverload(result.getException());
+    }
 
-            // TODO: Update delivery status in database
-            // deliveryStatusService.updateStatus(message.getEventId(), "sent", result);
+    private Outcome handleResult(EmailMessage message, EmailResult result) {
+        if (result.isSuccess()) {
+            handleSuccess(message, result, result.getDuration() != null ? result.getDuration() : 0);
+            return Outcome.ACK;
+        } else if (result.getException() instanceof SendDeferredException e) {
+            return handleProviderError(message, e);
+        } else if (result.getException() instanceof EmailException e) {
+            log.error("Email provider error", e);
+            return handleProviderError(message, e);
+        } else if (result.getException() instanceof Exception e) {
+            log.error("Unexpected error processing email", e);
+            return handleUnexpectedError(message, e);
+        } else {
+            return handleFailure(message, result.getError());
+        }
+    }
 
-        } catch (Exception e) {
-            log.error("Error handling success", e);
+    /**
+     * Wait for the broker to confirm the copy of a message handed to the
+     * retry queue or DLQ. The original delivery is acknowledged only once
+     * the copy is safely queued; otherwise it goes back on the main queue.
+     */
+    private Outcome handOff(EmailMessage message, CompletableFuture<Void> confirmed) {
+        try {
+            confirmed.get(handOffWaitMs, TimeUnit.MILLISECONDS);
+            return Outcome.ACK;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.REQUEUE;
+        } catch (ExecutionException | TimeoutException e) {
+            log.error("Hand-off of email not confirmed, requeueing: event={}", message.getEventId(), e);
+            return Outcome.REQUEUE;
+        }
+    }
+
+    private void settle(Channel channel, long deliveryTag, Outcome outcome) {
+        try {
+            switch (outcome) {
+                case ACK -> channel.basicAck(deliveryTag, false);
+                case REQUEUE -> channel.basicNack(deliveryTag, false, true);
+                case REJECT -> channel.basicReject(deliveryTag, false);
+            }
+        } catch (IOException e) {
+            log.error("Failed to acknowledge message", e);
+        }
+    }
+
+    private void settleBatch(Channel channel, List<Message> amqpMessages, Outcome[] outcomes) {
+        int prefix = 0;
+        while (prefix < outcomes.length && outcomes[prefix] == Outcome.ACK) {
+            prefix++;
+        }
+
+        try {
+            if (prefix > 0) {
+                long lastTag = amqpMessages.get(prefix - 1).getMessageProperties().getDeliveryTag();
+                channel.basicAck(lastTag, true);
+            }
+        } catch (IOException e) {
+            log.error("Failed to acknowledge batch up to message {}", prefix, e);
+        }
+
+        for (int i = prefix; i < outcomes.length; i++) {
+            settle(channel, amqpMessages.get(i).getMessageProperties().getDeliveryTag(), outcomes[i]);
         }
     }
 
-    private void handleFailure(
+    private void handleSuccess(
         EmailMessage message,
-        String error,
-        Channel channel,
-        long deliveryTag
+        EmailResult result,
+        long duration
+    ) {
+        log.info("Email sent successfully: event={}, provider={}, duration={}ms",
+            message.getEventId(), result.getProvider(), duration);
+
+        // Record metrics
+        metrics.recordEmailSent(result.getProvider(), message.getEventType(), duration);
+
+        // TODO: Update delivery status in database
+        // deliveryStatusService.updateStatus(message.getEventId(), "sent", result);
+    }
+
+    private Outcome handleFailure(
+        EmailMessage message,
+        String error
     ) {
         log.warn("Email send failed: event={}, error={}, retries={}",
             message.getEventId(), error, message.getRetryCount());
@@ -152,34 +440,29 @@ public class EmailWorker {
         if (message.getRetryCount() >= maxRetries) {
             // Max retries exceeded - send to DLQ
             log.error("Max retries exceeded, sending to DLQ: event={}", message.getEventId());
-            queueService.publishToDeadLetterQueue(message, error);
             metrics.recordEmailFailed(message.getEventType(), "max_retries");
-            try {
-                channel.basicAck(deliveryTag, false);
-            } catch (IOException e) {
-                log.error("Failed to acknowledge message", e);
-            }
+            return handOff(message, queueService.publishToDeadLetterQueue(message, error));
         } else {
             // Retry with backoff
             long delay = calculateBackoff(message.getRetryCount());
             log.info("Retrying email: event={}, attempt={}, delay={}ms",
                 message.getEventId(), message.getRetryCount(), delay);
-            queueService.publishToRetryQueue(message, delay);
             metrics.recordEmailRetry(message.getEventType());
-            try {
-                channel.basicAck(deliveryTag, false);
-            } catch (IOException e) {
-                log.error("Failed to acknowledge message", e);
-            }
+            return handOff(message, queueService.publishToRetryQueue(message, delay));
         }
     }
 
-    private void handleProviderError(
+    private Outcome handleProviderError(
         EmailMessage message,
-        EmailException e,
-        Channel channel,
-        long deliveryTag
+        EmailException e
     ) {
+        if (e instanceof SendDeferredException deferred) {
+            // Not sent: park on the retry queue without using up an attempt
+            log.info("Send deferred, parking email: event={}, reason={}, delay={}ms",
+                message.getEventId(), e.getMessage(), deferred.getRetryAfterMs());
+            return handOff(message, queueService.publishToRetryQueue(message, deferred.getRetryAfterMs()));
+        }
+
         log.error("Provider error for email: event={}, error={}",
             message.getEventId(), e.getMessage());
 
@@ -187,43 +470,25 @@ public class EmailWorker {
 
         // Check if error is retryable
         if (!e.isRetryable() || message.getRetryCount() >= getMaxRetries(message.getPriority())) {
-            queueService.publishToDeadLetterQueue(message, e.getMessage());
             metrics.recordEmailFailed(message.getEventType(), "provider_error");
-            try {
-                channel.basicAck(deliveryTag, false);
-            } catch (IOException ioException) {
-                log.error("Failed to acknowledge message", ioException);
-            }
+            return handOff(message, queueService.publishToDeadLetterQueue(message, e.getMessage()));
         } else {
             long delay = calculateBackoff(message.getRetryCount());
-            queueService.publishToRetryQueue(message, delay);
             metrics.recordEmailRetry(message.getEventType());
-            try {
-                channel.basicAck(deliveryTag, false);
-            } catch (IOException ioException) {
-                log.error("Failed to acknowledge message", ioException);
-            }
+            return handOff(message, queueService.publishToRetryQueue(message, delay));
         }
     }
 
-    private void handleUnexpectedError(
+    private Outcome handleUnexpectedError(
         EmailMessage message,
-        Exception e,
-        Channel channel,
-        long deliveryTag
+        Exception e
     ) {
         log.error("Unexpected error processing email: event={}", message.getEventId(), e);
 
         // Send to DLQ without incrementing retry count
         // as this is likely a data/format issue
-        queueService.publishToDeadLetterQueue(message, e.getMessage());
         metrics.recordEmailFailed(message.getEventType(), "unexpected_error");
-
-        try {
-            channel.basicAck(deliveryTag, false);
-        } catch (Exception ackException) {
-            log.error("Failed to acknowledge message", ackException);
-        }
+        return handOff(message, queueService.publishToDeadLetterQueue(message, e.getMessage()));
     }
 
     private long calculateBackoff(int retryCount) {
@@ -239,4 +504,15 @@ public class EmailWorker {
             default -> maxRetriesNormal;
         };
     }
+
+    /**
+     * How a delivery is settled with the broker once processed. Messages
+     * handed to the retry queue or DLQ are acknowledged like sent ones once
+     * the broker confirms the copy, and requeued if it does not.
+     */
+    private enum Outcome {
+        ACK,
+        REQUEUE,
+        REJECT
+    }
 }
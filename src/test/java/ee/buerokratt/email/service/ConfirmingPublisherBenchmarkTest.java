@@ -0,0 +1,173 @@
+package ee.buerokratt.email.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.RabbitMQContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares publishing with per-message confirms against batched publishes
+ * on one channel, against a real broker.
+ *
+ * Three modes are timed for the same number of messages:
+ * waiting for each confirm before the next publish (lock-step), separate
+ * publishes with all confirms awaited at the end, and publishAll chunks
+ * sent on one channel with pipelined confirms. Throughput is logged for
+ * comparison; the test only checks that every message was confirmed and
+ * queued. Runs with -Pbenchmark, excluded from the default build.
+ */
+@Tag("benchmark")
+@Testcontainers
+class ConfirmingPublisherBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ConfirmingPublisherBenchmarkTest.class);
+
+    private static final String EXCHANGE = "bench.exchange";
+    private static final String ROUTING_KEY = "bench";
+    private static final String QUEUE = "bench.queue";
+    private static final int MESSAGES = 2000;
+    private static final int CHUNK = 100;
+    private static final int WARMUP = 200;
+
+    @Container
+    private static final RabbitMQContainer rabbit = new RabbitMQContainer("rabbitmq:3-management");
+
+    private static CachingConnectionFactory connectionFactory;
+    private static RabbitAdmin admin;
+    private static ConfirmingPublisher publisher;
+    private static byte[] payload;
+
+    @BeforeAll
+    static void setUp() {
+        connectionFactory = new CachingConnectionFactory(rabbit.getHost(), rabbit.getAmqpPort());
+        connectionFactory.setUsername(rabbit.getAdminUsername());
+        connectionFactory.setPassword(rabbit.getAdminPassword());
+        connectionFactory.setPublisherConfirmType(CachingConnectionFactory.ConfirmType.CORRELATED);
+        connectionFactory.setPublisherReturns(true);
+
+        admin = new RabbitAdmin(connectionFactory);
+        DirectExchange exchange = new DirectExchange(EXCHANGE);
+        Queue queue = new Queue(QUEUE);
+        admin.declareExchange(exchange);
+        admin.declareQueue(queue);
+        admin.declareBinding(BindingBuilder.bind(queue).to(exchange).with(ROUTING_KEY));
+
+        RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setMandatory(true);
+
+        publisher = new ConfirmingPublisher(rabbitTemplate, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(publisher, "applicationName", "benchmark");
+        ReflectionTestUtils.setField(publisher, "confirmWindow", 1000);
+        ReflectionTestUtils.setField(publisher, "windowTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(publisher, "confirmTimeoutMs", 10000L);
+        ReflectionTestUtils.setField(publisher, "maxAttempts", 3);
+        ReflectionTestUtils.setField(publisher, "retryBackoffMs", 100L);
+        publisher.init();
+
+        // A rendered email of typical size
+        payload = "{\"eventId\":\"x\",\"subject\":\"Teavitus\",\"htmlBody\":\"%s\"}"
+            .formatted("<p>Tere!</p>".repeat(150))
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        publisher.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void purge() {
+        admin.purgeQueue(QUEUE, false);
+    }
+
+    @Test
+    void comparesBatchedAndPerMessageConfirms() {
+        publishLockStep(WARMUP);
+        publishBatched(WARMUP);
+        admin.purgeQueue(QUEUE, false);
+
+        long lockStep = time(() -> publishLockStep(MESSAGES));
+        long separate = time(() -> publishSeparately(MESSAGES));
+        long batched = time(() -> publishBatched(MESSAGES));
+
+        report("per-message, wait for each confirm", lockStep);
+        report("per-message, confirms awaited at end", separate);
+        report("publishAll in chunks of " + CHUNK, batched);
+
+        assertThat(admin.getQueueInfo(QUEUE).getMessageCount()).isEqualTo(MESSAGES * 3);
+    }
+
+    private void publishLockStep(int count) {
+        for (int i = 0; i < count; i++) {
+            assertThat(publisher.publish(EXCHANGE, ROUTING_KEY, message(), "lock-step-" + i))
+                .succeedsWithin(Duration.ofSeconds(30));
+        }
+    }
+
+    private void publishSeparately(int count) {
+        List<CompletableFuture<Void>> confirms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            confirms.add(publisher.publish(EXCHANGE, ROUTING_KEY, message(), "separate-" + i));
+        }
+        assertConfirmed(confirms, count);
+    }
+
+    private void publishBatched(int count) {
+        List<CompletableFuture<Void>> confirms = new ArrayList<>(count);
+        for (int from = 0; from < count; from += CHUNK) {
+            List<Message> messages = new ArrayList<>(CHUNK);
+            List<String> eventIds = new ArrayList<>(CHUNK);
+            for (int i = from; i < Math.min(from + CHUNK, count); i++) {
+                messages.add(message());
+                eventIds.add("batched-" + i);
+            }
+            confirms.addAll(publisher.publishAll(EXCHANGE, ROUTING_KEY, messages, eventIds));
+        }
+        assertConfirmed(confirms, count);
+    }
+
+    private static void assertConfirmed(List<CompletableFuture<Void>> confirms, int count) {
+        assertThat(confirms).hasSize(count);
+        assertThat(CompletableFuture.allOf(confirms.toArray(new CompletableFuture[0])))
+            .succeedsWithin(Duration.ofSeconds(60));
+    }
+
+    private static Message message() {
+        return MessageBuilder.withBody(payload).setContentType("application/json").build();
+    }
+
+    private static long time(Runnable run) {
+        long start = System.nanoTime();
+        run.run();
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String mode, long nanos) {
+        log.info("{}: {} ms, {} msg/s", mode, nanos / 1_000_000, Math.round(MESSAGES / (nanos / 1e9)));
+    }
+}
@@ -0,0 +1,218 @@
+package ee.buerokratt.email.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import ee.buerokratt.email.model.EmailMessage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link EmailMessageCodec} on representative email messages.
+ *
+ * Both formats must round-trip every message unchanged and CBOR must not
+ * be larger than JSON. The encode and decode timing comparison is tagged
+ * as a benchmark and only logged, since it depends too much on the
+ * machine to assert on.
+ */
+class EmailMessageCodecTest {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailMessageCodecTest.class);
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 2000;
+
+    private static final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .build();
+
+    private final EmailMessageCodec json = new EmailMessageCodec(objectMapper, "json");
+    private final EmailMessageCodec cbor = new EmailMessageCodec(objectMapper, "cbor");
+
+    static Stream<Arguments> payloads() {
+        return Stream.of(
+            Arguments.of("notification", notification()),
+            Arguments.of("templated", templated()),
+            Arguments.of("large body", largeBody()),
+            Arguments.of("claim check", claimCheck()));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("payloads")
+    void roundTripsBothFormatsWithCborNoLarger(String name, EmailMessage message) throws IOException {
+        byte[] jsonBody = json.encode(message);
+        byte[] cborBody = cbor.encode(message);
+
+        assertThat(json.decode(amqp(jsonBody, json))).usingRecursiveComparison().isEqualTo(message);
+        assertThat(cbor.decode(amqp(cborBody, cbor))).usingRecursiveComparison().isEqualTo(message);
+        assertThat(cborBody.length).isLessThanOrEqualTo(jsonBody.length);
+    }
+
+    @Tag("benchmark")
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("payloads")
+    void comparesEncodeAndDecodeTime(String name, EmailMessage message) throws IOException {
+        int jsonSize = json.encode(message).length;
+        int cborSize = cbor.encode(message).length;
+        Timing jsonTiming = time(json, message);
+        Timing cborTiming = time(cbor, message);
+
+        log.info("{}: size json {} B, cbor {} B ({}%)", name, jsonSize, cborSize,
+            Math.round(100.0 * cborSize / jsonSize));
+        log.info("{}: encode json {} us, cbor {} us; decode json {} us, cbor {} us", name,
+            format(jsonTiming.encodeUs()), format(cborTiming.encodeUs()),
+            format(jsonTiming.decodeUs()), format(cborTiming.decodeUs()));
+    }
+
+    /**
+     * Median time per message over several rounds, after warmup rounds.
+     */
+    private static Timing time(EmailMessageCodec codec, EmailMessage message) throws IOException {
+        Message body = amqp(codec.encode(message), codec);
+        double[] encode = new double[ROUNDS];
+        double[] decode = new double[ROUNDS];
+
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                codec.encode(message);
+            }
+            long encoded = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                codec.decode(body);
+            }
+            long decoded = System.nanoTime();
+
+            if (round >= 0) {
+                encode[round] = (encoded - start) / 1000.0 / ITERATIONS;
+                decode[round] = (decoded - encoded) / 1000.0 / ITERATIONS;
+            }
+        }
+        return new Timing(median(encode), median(decode));
+    }
+
+    private static String format(double micros) {
+        return String.format(Locale.ROOT, "%.2f", micros);
+    }
+
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    private static Message amqp(byte[] body, EmailMessageCodec codec) {
+        return MessageBuilder.withBody(body)
+            .setContentType(codec.contentType())
+            .setContentEncoding(codec.contentEncoding())
+            .build();
+    }
+
+    /**
+     * Short transactional message without template data.
+     */
+    private static EmailMessage notification() {
+        return base("notification-1")
+            .subject("Teie pöördumisele on vastatud")
+            .htmlBody("<p>Tere, Mari!</p><p>Teie pöördumisele on vastatud. Vastust näete portaalis.</p>")
+            .textBody("Tere, Mari!\n\nTeie pöördumisele on vastatud. Vastust näete portaalis.")
+            .build();
+    }
+
+    /**
+     * Rendered template of a few kilobytes with its template data.
+     */
+    private static EmailMessage templated() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("name", "Mari Maasikas");
+        data.put("caseNumber", "2026-000123");
+        data.put("deadline", "2026-11-01");
+        data.put("items", List.of(
+            Map.of("title", "Taotlus", "status", "Menetluses"),
+            Map.of("title", "Lisadokument", "status", "Vastu võetud")));
+
+        return base("templated-1")
+            .subject("Menetluse olek: 2026-000123")
+            .templateId("case-status")
+            .templateData(data)
+            .htmlBody(html(20))
+            .textBody(text(20))
+            .build();
+    }
+
+    /**
+     * Newsletter-sized HTML body.
+     */
+    private static EmailMessage largeBody() {
+        return base("large-1")
+            .subject("Bürokrati uudiskiri")
+            .htmlBody(html(400))
+            .textBody(text(400))
+            .build();
+    }
+
+    /**
+     * Message whose bodies are stored outside the queue payload.
+     */
+    private static EmailMessage claimCheck() {
+        return base("claim-check-1")
+            .subject("Bürokrati uudiskiri")
+            .htmlBodyRef("bodies/claim-check-1/html")
+            .textBodyRef("bodies/claim-check-1/text")
+            .build();
+    }
+
+    private static EmailMessage.Builder base(String eventId) {
+        return EmailMessage.builder()
+            .eventId(eventId)
+            .eventType("NOTIFICATION")
+            .to("mari.maasikas@example.ee")
+            .recipientName("Mari Maasikas")
+            .from("noreply@buerokratt.ee")
+            .replyTo("info@buerokratt.ee")
+            .priority("NORMAL")
+            .locale("et")
+            .metadata(Map.of("source", "chat", "tenant", "riik"))
+            .retryCount(0)
+            .maxRetries(3)
+            .attemptCount(0)
+            .createdAt(Instant.parse("2026-10-16T09:30:00Z"));
+    }
+
+    private static String html(int paragraphs) {
+        StringBuilder html = new StringBuilder("<html><body style=\"font-family: Arial, sans-serif\">");
+        for (int i = 0; i < paragraphs; i++) {
+            html.append("<p class=\"content\">Lõik ").append(i)
+                .append(": Teie pöördumine on menetluses. <a href=\"https://www.eesti.ee/\">Vaata lähemalt</a>.</p>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static String text(int paragraphs) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            text.append("Lõik ").append(i).append(": Teie pöördumine on menetluses.\n\n");
+        }
+        return text.toString();
+    }
+
+    private record Timing(double encodeUs, double decodeUs) {
+    }
+}
@@ -0,0 +1,287 @@
+package ee.buerokratt.email.service.provider;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests for {@link PipeliningSmtpTransport} against an in-process SMTP
+ * server that holds back its MAIL FROM reply until it has read the RCPT
+ * TO commands, so a client that waits for each reply is detected.
+ */
+class PipeliningSmtpTransportTest {
+
+    private FakeSmtpServer server;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void sessionCreatesPipeliningTransport() throws Exception {
+        server = FakeSmtpServer.start(true, Set.of());
+        Session session = session(server.port(), false);
+
+        assertThat(session.getTransport("smtp")).isInstanceOf(PipeliningSmtpTransport.class);
+    }
+
+    @Test
+    void pipelinesEnvelopeWhenServerAdvertisesPipelining() throws Exception {
+        server = FakeSmtpServer.start(true, Set.of());
+        Session session = session(server.port(), false);
+
+        send(session, "a@example.com", "b@example.com");
+
+        assertThat(server.pipelined()).isTrue();
+        assertThat(server.commands()).containsSubsequence(
+            "MAIL FROM:<sender@example.com>", "RCPT TO:<a@example.com>", "RCPT TO:<b@example.com>", "DATA");
+        assertThat(server.messages()).hasSize(1);
+        assertThat(server.messages().get(0)).contains("Subject: Test");
+    }
+
+    @Test
+    void sendsStandardWayWithoutPipelining() throws Exception {
+        server = FakeSmtpServer.start(false, Set.of());
+        Session session = session(server.port(), false);
+
+        send(session, "a@example.com", "b@example.com");
+
+        assertThat(server.pipelined()).isFalse();
+        assertThat(server.messages()).hasSize(1);
+    }
+
+    @Test
+    void resetsWhenRecipientRejectedWithoutSendPartial() throws Exception {
+        server = FakeSmtpServer.start(true, Set.of("b@example.com"));
+        Session session = session(server.port(), false);
+
+        assertThatThrownBy(() -> send(session, "a@example.com", "b@example.com"))
+            .isInstanceOfSatisfying(SendFailedException.class, e -> {
+                assertThat(e.getInvalidAddresses()).extracting(Address::toString).containsExactly("b@example.com");
+                assertThat(e.getValidSentAddresses()).isNull();
+                assertThat(e.getNextException()).isInstanceOfSatisfying(SMTPAddressFailedException.class,
+                    failed -> assertThat(failed.getReturnCode()).isEqualTo(550));
+            });
+
+        assertThat(server.commands()).contains("RSET").doesNotContain("DATA");
+        assertThat(server.messages()).isEmpty();
+    }
+
+    @Test
+    void sendsToAcceptedRecipientsWithSendPartial() throws Exception {
+        server = FakeSmtpServer.start(true, Set.of("b@example.com"));
+        Session session = session(server.port(), true);
+
+        assertThatThrownBy(() -> send(session, "a@example.com", "b@example.com"))
+            .isInstanceOfSatisfying(SendFailedException.class, e -> {
+                assertThat(e.getValidSentAddresses()).extracting(Address::toString).containsExactly("a@example.com");
+                assertThat(e.getInvalidAddresses()).extracting(Address::toString).containsExactly("b@example.com");
+            });
+
+        assertThat(server.pipelined()).isTrue();
+        assertThat(server.messages()).hasSize(1);
+    }
+
+    private static Session session(int port, boolean sendPartial) {
+        Properties props = new Properties();
+        props.put("mail.smtp.host", "localhost");
+        props.put("mail.smtp.port", String.valueOf(port));
+        props.put("mail.smtp.auth", "false");
+        props.put("mail.smtp.sendpartial", String.valueOf(sendPartial));
+        props.put("mail.smtp.timeout", "5000");
+        Session session = Session.getInstance(props);
+        PipeliningSmtpTransport.register(session);
+        return session;
+    }
+
+    private static void send(Session session, String... recipients) throws Exception {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("sender@example.com"));
+        message.setRecipients(Message.RecipientType.TO, String.join(",", recipients));
+        message.setSubject("Test");
+        message.setText("Hello");
+        message.saveChanges();
+
+        Address[] addresses = new Address[recipients.length];
+        for (int i = 0; i < recipients.length; i++) {
+            addresses[i] = new InternetAddress(recipients[i]);
+        }
+
+        try (Transport transport = session.getTransport("smtp")) {
+            transport.connect();
+            transport.sendMessage(message, addresses);
+        }
+    }
+
+    /**
+     * Minimal single-connection SMTP server. With PIPELINING advertised it
+     * answers MAIL FROM only after the RCPT TO commands have arrived, or
+     * after a short wait if the client is waiting for the reply instead.
+     */
+    private static class FakeSmtpServer {
+
+        private static final int PIPELINE_WAIT_MS = 1000;
+
+        private final ServerSocket socket;
+        private final boolean advertisePipelining;
+        private final Set<String> rejected;
+        private final List<String> commands = new CopyOnWriteArrayList<>();
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private volatile boolean pipelined;
+
+        private FakeSmtpServer(boolean advertisePipelining, Set<String> rejected) throws IOException {
+            this.socket = new ServerSocket(0);
+            this.advertisePipelining = advertisePipelining;
+            this.rejected = rejected;
+        }
+
+        static FakeSmtpServer start(boolean advertisePipelining, Set<String> rejected) throws IOException {
+            FakeSmtpServer server = new FakeSmtpServer(advertisePipelining, rejected);
+            Thread thread = new Thread(server::serve, "fake-smtp");
+            thread.setDaemon(true);
+            thread.start();
+            return server;
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        boolean pipelined() {
+            return pipelined;
+        }
+
+        List<String> commands() {
+            return commands;
+        }
+
+        List<String> messages() {
+            return messages;
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+
+        private void serve() {
+            while (!socket.isClosed()) {
+                try (Socket client = socket.accept()) {
+                    converse(client);
+                } catch (IOException e) {
+                    // Closed by the test
+                }
+            }
+        }
+
+        private void converse(Socket client) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.US_ASCII);
+            reply(out, "220 localhost ESMTP");
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                commands.add(line);
+                String command = line.toUpperCase();
+
+                if (command.startsWith("EHLO")) {
+                    reply(out, advertisePipelining ? "250-localhost\r\n250 PIPELINING" : "250 localhost");
+                } else if (command.startsWith("HELO") || command.startsWith("NOOP") || command.startsWith("RSET")) {
+                    reply(out, "250 OK");
+                } else if (command.startsWith("MAIL FROM")) {
+                    List<String> queued = advertisePipelining ? readPipelined(client, in) : List.of();
+                    reply(out, "250 OK");
+                    for (String rcpt : queued) {
+                        reply(out, rcptReply(rcpt));
+                    }
+                } else if (command.startsWith("RCPT TO")) {
+                    reply(out, rcptReply(line));
+                } else if (command.equals("DATA")) {
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    messages.add(readData(in));
+                    reply(out, "250 Queued");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    reply(out, "500 Unrecognized command");
+                }
+            }
+        }
+
+        /**
+         * Read the RCPT TO commands that follow MAIL FROM without replying.
+         * A client that waits for the MAIL FROM reply sends nothing, so
+         * the read times out and the exchange continues one by one.
+         */
+        private List<String> readPipelined(Socket client, BufferedReader in) throws IOException {
+            List<String> queued = new ArrayList<>();
+            client.setSoTimeout(PIPELINE_WAIT_MS);
+            try {
+                while (true) {
+                    String next = in.readLine();
+                    if (next == null) {
+                        break;
+                    }
+                    commands.add(next);
+                    queued.add(next);
+                    if (!in.ready()) {
+                        break;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // Nothing pipelined
+            } finally {
+                client.setSoTimeout(0);
+            }
+            pipelined = !queued.isEmpty();
+            return queued;
+        }
+
+        private String rcptReply(String rcpt) {
+            String address = rcpt.substring(rcpt.indexOf('<') + 1, rcpt.indexOf('>'));
+            return rejected.contains(address) ? "550 No such user" : "250 OK";
+        }
+
+        private String readData(BufferedReader in) throws IOException {
+            StringBuilder data = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null && !line.equals(".")) {
+                data.append(line).append("\n");
+            }
+            return data.toString();
+        }
+
+        private void reply(Writer out, String reply) throws IOException {
+            out.write(reply + "\r\n");
+            out.flush();
+        }
+    }
+}